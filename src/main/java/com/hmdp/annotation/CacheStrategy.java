@@ -0,0 +1,22 @@
+package com.hmdp.annotation;
+
+/**
+ * 缓存未命中时的重建策略，对应 CacheClient 的三种查询方式
+ */
+public enum CacheStrategy {
+
+    /**
+     * 缓存空值解决缓存穿透，未命中直接查询数据库
+     */
+    PASS_THROUGH,
+
+    /**
+     * 互斥锁解决缓存击穿，同一时间只有一个请求查询数据库
+     */
+    MUTEX,
+
+    /**
+     * 逻辑过期解决缓存击穿，过期后返回旧值并异步重建；key 需要提前预热
+     */
+    LOGICAL_EXPIRE
+}
@@ -0,0 +1,42 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询方法的结果通过 CacheClient 缓存，key = prefix + 第一个参数（无参方法为 prefix）。
+ * <ul>
+ *     <li>第一个参数是 id 的 List、返回值也是 List：批量查询，一次 MGET，未命中的 id 一次调用原方法，结果按 id 顺序返回</li>
+ *     <li>返回值是 List 的其它方法：整个列表缓存为一个值</li>
+ *     <li>其它：按 strategy 缓存单个对象</li>
+ * </ul>
+ * 原方法只在缓存未命中时执行，缓存中的对象会被多个请求共享，调用方修改前需要复制
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface HmdpCached {
+
+    /**
+     * 缓存key前缀
+     */
+    String prefix();
+
+    /**
+     * 缓存时间，逻辑过期策略下为逻辑过期时间
+     */
+    long ttl() default 30;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * 批量查询时，返回对象中 id 的属性名
+     */
+    String idProperty() default "id";
+}
@@ -0,0 +1,32 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后通过 CacheInvalidator 删除缓存（Redis + 所有节点的本地缓存），key = prefix + id。
+ * 在事务中调用时删除发生在事务提交之后，并会延时再删除一次，失败的删除会重试
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface HmdpEvict {
+
+    /**
+     * 缓存key前缀
+     */
+    String prefix();
+
+    /**
+     * id 所在参数的下标，参数为集合时删除其中的每个 id
+     */
+    int arg() default 0;
+
+    /**
+     * 参数是实体时，从中读取 id 的属性名；为空表示参数本身就是 id
+     */
+    String property() default "";
+}
@@ -0,0 +1,220 @@
+package com.hmdp.aspect;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.annotation.HmdpCached;
+import com.hmdp.annotation.HmdpEvict;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.Ordered;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 处理 @HmdpCached / @HmdpEvict，并按方法统计命中、未命中的次数和耗时。
+ * 优先级最高，位于事务切面外层：缓存命中时不开启事务，删除缓存发生在事务提交之后
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class HmdpCacheAspect {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    /**
+     * 方法名 -> 统计
+     */
+    private final Map<String, MethodStats> methodStats = new ConcurrentHashMap<>();
+
+    @Around("@annotation(cached)")
+    public Object cached(ProceedingJoinPoint pjp, HmdpCached cached) throws Throwable {
+        Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+        Object[] args = pjp.getArgs();
+        Object id = args.length == 0 ? "" : args[0];
+        // 原方法被调用即为未命中
+        AtomicBoolean miss = new AtomicBoolean();
+        long begin = System.nanoTime();
+        Object result;
+        if (List.class.isAssignableFrom(method.getReturnType())) {
+            Class<?> elementType = ResolvableType.forMethodReturnType(method).asCollection().resolveGeneric(0);
+            if (elementType == null) {
+                throw new IllegalStateException("无法确定 " + method + " 返回的 List 的元素类型");
+            }
+            result = id instanceof List
+                    ? queryBatch(pjp, cached, (List<?>) id, elementType, miss)
+                    : queryList(pjp, cached, id, elementType, miss);
+        } else {
+            result = query(cached, id, method.getReturnType(), key -> {
+                miss.set(true);
+                return proceed(pjp, replaceFirst(args, key));
+            });
+        }
+        methodStats.computeIfAbsent(methodName(pjp, method), k -> new MethodStats())
+                .record(miss.get(), System.nanoTime() - begin);
+        return result;
+    }
+
+    @AfterReturning("@annotation(evict)")
+    public void evict(JoinPoint jp, HmdpEvict evict) {
+        Object arg = jp.getArgs()[evict.arg()];
+        Object id = evict.property().isEmpty() ? arg : BeanUtil.getProperty(arg, evict.property());
+        // 事务提交后删除，延时双删，失败进入重试队列
+        if (id instanceof Collection) {
+            List<String> keys = new ArrayList<>(((Collection<?>) id).size());
+            for (Object each : (Collection<?>) id) {
+                keys.add(evict.prefix() + each);
+            }
+            cacheInvalidator.invalidate(keys);
+        } else if (id != null) {
+            cacheInvalidator.invalidate(evict.prefix() + id);
+        }
+    }
+
+    /**
+     * 各方法的缓存统计
+     * @return 方法名 -> 命中数、未命中数、命中率、命中和未命中的平均 / 最大耗时（微秒）
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(methodStats.size() * 2);
+        methodStats.forEach((name, s) -> stats.put(name, s.toMap()));
+        return stats;
+    }
+
+    /**
+     * 单个对象，按注解的策略查询
+     */
+    @SuppressWarnings("unchecked")
+    private Object query(HmdpCached cached, Object id, Class<?> type, Function<Object, Object> dbFallback) {
+        Class<Object> objType = (Class<Object>) type;
+        switch (cached.strategy()) {
+            case MUTEX:
+                return cacheClient.queryWithMutex(cached.prefix(), id, objType, dbFallback, cached.ttl(), cached.unit());
+            case LOGICAL_EXPIRE:
+                return cacheClient.queryWithLogicalExpire(cached.prefix(), id, objType, dbFallback, cached.ttl(), cached.unit());
+            default:
+                return cacheClient.queryWithPassThrough(cached.prefix(), id, objType, dbFallback, cached.ttl(), cached.unit());
+        }
+    }
+
+    /**
+     * 整个列表作为一个值缓存，缓存中保存为元素类型的数组
+     */
+    private Object queryList(ProceedingJoinPoint pjp, HmdpCached cached, Object id, Class<?> elementType, AtomicBoolean miss) {
+        Class<?> arrayType = Array.newInstance(elementType, 0).getClass();
+        Object array = query(cached, id, arrayType, key -> {
+            miss.set(true);
+            List<?> list = (List<?>) proceed(pjp, replaceFirst(pjp.getArgs(), key));
+            return list == null ? null : list.toArray((Object[]) Array.newInstance(elementType, list.size()));
+        });
+        if (array == null) {
+            return null;
+        }
+        // 缓存中的数组是共享的，返回一个新的 List
+        return new ArrayList<>(Arrays.asList((Object[]) array));
+    }
+
+    /**
+     * 批量查询，未命中的 id 替换第一个参数后调用一次原方法
+     */
+    @SuppressWarnings("unchecked")
+    private Object queryBatch(ProceedingJoinPoint pjp, HmdpCached cached, List<?> ids, Class<?> elementType, AtomicBoolean miss) {
+        return cacheClient.queryBatch(cached.prefix(), (List<Object>) ids, (Class<Object>) elementType, missIds -> {
+            miss.set(true);
+            Collection<?> loaded = (Collection<?>) proceed(pjp, replaceFirst(pjp.getArgs(), missIds));
+            Map<Object, Object> byId = new HashMap<>(missIds.size() * 2);
+            if (loaded != null) {
+                for (Object r : loaded) {
+                    byId.put(BeanUtil.getProperty(r, cached.idProperty()), r);
+                }
+            }
+            return byId;
+        }, cached.ttl(), cached.unit());
+    }
+
+    private static Object[] replaceFirst(Object[] args, Object first) {
+        if (args.length == 0) {
+            return args;
+        }
+        Object[] copy = args.clone();
+        copy[0] = first;
+        return copy;
+    }
+
+    private static Object proceed(ProceedingJoinPoint pjp, Object[] args) {
+        try {
+            return pjp.proceed(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String methodName(ProceedingJoinPoint pjp, Method method) {
+        return pjp.getTarget().getClass().getSimpleName() + "." + method.getName();
+    }
+
+    /**
+     * 单个方法的命中统计
+     */
+    private static class MethodStats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder hitNanos = new LongAdder();
+        private final LongAdder missNanos = new LongAdder();
+        private final LongAccumulator maxHitNanos = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator maxMissNanos = new LongAccumulator(Math::max, 0);
+
+        void record(boolean miss, long nanos) {
+            if (miss) {
+                misses.increment();
+                missNanos.add(nanos);
+                maxMissNanos.accumulate(nanos);
+            } else {
+                hits.increment();
+                hitNanos.add(nanos);
+                maxHitNanos.accumulate(nanos);
+            }
+        }
+
+        Map<String, Object> toMap() {
+            long h = hits.sum();
+            long m = misses.sum();
+            Map<String, Object> map = new LinkedHashMap<>(16);
+            map.put("hits", h);
+            map.put("misses", m);
+            map.put("hitRate", h + m == 0 ? 0D : (double) h / (h + m));
+            map.put("avgHitMicros", h == 0 ? 0D : hitNanos.sum() / 1000D / h);
+            map.put("maxHitMicros", maxHitNanos.get() / 1000D);
+            map.put("avgMissMicros", m == 0 ? 0D : missNanos.sum() / 1000D / m);
+            map.put("maxMissMicros", maxMissNanos.get() / 1000D);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.hmdp.controller;
+
+import com.hmdp.aspect.HmdpCacheAspect;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.ShopGeoCache;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 缓存运行状态
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private HmdpCacheAspect hmdpCacheAspect;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private ShopGeoCache shopGeoCache;
+
+    /**
+     * 各级缓存的命中率
+     * @return l1（本地）、l2（redis）的命中数、未命中数、命中率
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        return Result.ok(cacheClient.stats());
+    }
+
+    /**
+     * 缓存删除的重试队列
+     * @return 等待重试的 key 数、重试次数、放弃的 key 数
+     */
+    @GetMapping("/invalidations")
+    public Result invalidations() {
+        return Result.ok(cacheInvalidator.stats());
+    }
+
+    /**
+     * 当前提升到本地副本的热点 key
+     * @return 按 QPS 从高到低排列的 key 和估算的 QPS
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(cacheClient.hotKeys());
+    }
+
+    /**
+     * 使用 @HmdpCached 的各个方法的命中率和耗时
+     * @return 方法名 -> 命中数、未命中数、命中率、命中 / 未命中的平均和最大耗时（微秒）
+     */
+    @GetMapping("/methods")
+    public Result methods() {
+        return Result.ok(hmdpCacheAspect.stats());
+    }
+
+    /**
+     * 附近商铺结果缓存的命中率
+     * @return 请求数、候选集加载次数、命中率、候选集覆盖不到而直接查询的次数
+     */
+    @GetMapping("/geo")
+    public Result geo() {
+        return Result.ok(shopGeoCache.stats());
+    }
+}
@@ -3,10 +3,8 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -22,6 +20,11 @@ import javax.annotation.Resource;
 @RequestMapping("/voucher-order")
 public class VoucherOrderController {
 
+    /**
+     * 长轮询最长等待时间，毫秒
+     */
+    private static final long MAX_RESULT_TIMEOUT = 30000L;
+
     @Resource
     private IVoucherOrderService voucherOrderService;
 
@@ -34,4 +37,17 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单结果，结果未出时最多挂起 timeout 毫秒
+     * @param orderId 秒杀返回的订单id
+     * @param timeout 最长等待时间，毫秒
+     * @return 订单状态：0处理中，1成功，2失败
+     */
+    @GetMapping("seckill/result/{id}")
+    public DeferredResult<Result> queryOrderResult(
+            @PathVariable("id") Long orderId,
+            @RequestParam(value = "timeout", defaultValue = "10000") Long timeout) {
+        return voucherOrderService.queryOrderResult(orderId, Math.min(Math.max(timeout, 1L), MAX_RESULT_TIMEOUT));
+    }
 }
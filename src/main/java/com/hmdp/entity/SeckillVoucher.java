@@ -52,6 +52,11 @@ public class SeckillVoucher implements Serializable {
      */
     private LocalDateTime endTime;
 
+    /**
+     * 每人限购数量
+     */
+    private Integer userLimit;
+
     /**
      * 更新时间
      */
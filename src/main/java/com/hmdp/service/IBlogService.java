@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -21,6 +23,20 @@ public interface IBlogService extends IService<Blog> {
      */
     Result queryBlogById(Long id);
 
+    /**
+     * 根据id查询笔记
+     * @param id
+     * @return
+     */
+    Blog queryById(Long id);
+
+    /**
+     * 根据id批量查询笔记，按 ids 的顺序返回
+     * @param ids
+     * @return
+     */
+    List<Blog> queryByIds(List<Long> ids);
+
     /**
      * 点赞功能
      * @param id
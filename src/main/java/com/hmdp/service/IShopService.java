@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.GeoScrollResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -21,6 +24,20 @@ public interface IShopService extends IService<Shop> {
      */
     Shop queryById(Long id);
 
+    /**
+     * 根据id批量查询商户，按 ids 的顺序返回
+     * @param ids
+     * @return
+     */
+    List<Shop> queryByIds(List<Long> ids);
+
+    /**
+     * 新增商户信息
+     * @param shop
+     * @return 商户id
+     */
+    Long saveShop(Shop shop);
+
     /**
      * 更新商户信息
      * @param shop
@@ -34,4 +51,20 @@ public interface IShopService extends IService<Shop> {
      * @return 商铺列表
      */
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 根据商铺类型滚动查询附近的商铺，每页从上一页的游标处继续
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    GeoScrollResult queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor);
+
+    /**
+     * 根据商铺名称关键字分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param current 页码
+     * @return 商铺列表
+     */
+    Result queryShopByName(String name, Integer current);
 }
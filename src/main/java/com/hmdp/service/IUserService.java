@@ -3,9 +3,11 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -49,4 +51,18 @@ public interface IUserService extends IService<User> {
      * @return
      */
     Result signCount();
+
+    /**
+     * 根据id查询用户的公开信息（id、昵称、头像）
+     * @param id
+     * @return
+     */
+    UserDTO queryById(Long id);
+
+    /**
+     * 根据id批量查询用户的公开信息，按 ids 的顺序返回
+     * @param ids
+     * @return
+     */
+    List<UserDTO> queryByIds(List<Long> ids);
 }
@@ -4,6 +4,10 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -21,5 +25,24 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      */
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    /**
+     * 查询秒杀订单结果（长轮询）
+     * @param orderId 订单id
+     * @param timeoutMillis 最长等待时间
+     * @return 订单状态：0处理中，1成功，2失败
+     */
+    DeferredResult<Result> queryOrderResult(Long orderId, long timeoutMillis);
+
+    /**
+     * 批量创建订单
+     * @param voucherOrders
+     */
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 批量取消超时未支付的订单并归还库存
+     * @param orderIds 到期的订单id
+     * @return 已取消的订单，包括之前已经取消的
+     */
+    List<VoucherOrder> cancelTimeoutOrders(List<Long> orderIds);
 }
@@ -17,4 +17,11 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 补充秒杀券库存，并清除各节点的售罄标记
+     * @param voucherId 优惠券id
+     * @param count 补充数量
+     */
+    void addSeckillStock(Long voucherId, Integer count);
 }
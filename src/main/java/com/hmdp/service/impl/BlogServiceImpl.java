@@ -1,8 +1,8 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
+import com.hmdp.annotation.HmdpCached;
+import com.hmdp.annotation.HmdpEvict;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
@@ -14,8 +14,10 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.EntityBloomFilters;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
@@ -25,10 +27,14 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL;
 import static com.hmdp.utils.RedisConstants.FEED_KEY;
 
 /**
@@ -52,6 +58,13 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private EntityBloomFilters entityBloomFilters;
+
+    @Resource
+    @Lazy
+    private IBlogService proxy;
+
     /**
      * 查看探店笔记
      * @param id
@@ -59,11 +72,13 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
-        // 1.查询blog
-        Blog blog = getById(id);
-        if (blog == null) {
+        // 1.查询blog（缓存，布隆过滤器判断不存在时不再查询数据库）
+        Blog cached = proxy.queryById(id);
+        if (cached == null) {
             return Result.fail("笔记不存在！");
         }
+        // 缓存对象是共享的，复制后再填充用户和点赞信息
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
         // 2.查询blog有关的用户
         queryBlogUser(blog);
 
@@ -73,6 +88,28 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(blog);
     }
 
+    /**
+     * 根据id查询笔记
+     * @param id
+     * @return
+     */
+    @Override
+    @HmdpCached(prefix = CACHE_BLOG_KEY, ttl = CACHE_BLOG_TTL)
+    public Blog queryById(Long id) {
+        return getById(id);
+    }
+
+    /**
+     * 根据id批量查询笔记：一次 MGET，未命中的 id 一次查询数据库
+     * @param ids
+     * @return
+     */
+    @Override
+    @HmdpCached(prefix = CACHE_BLOG_KEY, ttl = CACHE_BLOG_TTL)
+    public List<Blog> queryByIds(List<Long> ids) {
+        return listByIds(ids);
+    }
+
     private void isBlogLiked(Blog blog) {
         // 1.获取登录用户
         User user = UserHolder.getUser();
@@ -93,6 +130,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      * @return
      */
     @Override
+    @HmdpEvict(prefix = CACHE_BLOG_KEY)
     public Result likeBlog(Long id) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
@@ -134,13 +172,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         // 2.解析出其中的用户id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        // 3.根据用户id查询用户 WHERE id IN ( 5 , 1 ) ORDER BY FIELD(id, 5, 1)
-        List<UserDTO> userDTOS = iUserService.query()
-                .in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 3.根据用户id批量查询用户缓存，按点赞顺序返回
+        List<UserDTO> userDTOS = iUserService.queryByIds(ids);
         // 4.返回
         return Result.ok(userDTOS);
     }
@@ -160,6 +193,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!isSuccess){
             return Result.fail("新增笔记失败!");
         }
+        entityBloomFilters.blog().add(blog.getId());
         // 3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
         List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
         // 4.推送笔记id给所有粉丝
@@ -203,13 +237,21 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             }
         }
         os = minTime == max ? os : os + offset;
-        // 5.根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-
+        // 5.根据id批量查询blog缓存，按收件箱顺序返回（缓存对象是共享的，复制后再填充用户和点赞信息）
+        List<Blog> blogs = proxy.queryByIds(ids)
+                .stream()
+                .map(blog -> BeanUtil.copyProperties(blog, Blog.class))
+                .collect(Collectors.toList());
+        // 5.1.批量查询blog有关的用户
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = iUserService.queryByIds(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
         for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
             // 5.2.查询blog是否被点赞
             isBlogLiked(blog);
         }
@@ -226,7 +268,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
-        User user = iUserService.getById(userId);
+        UserDTO user = iUserService.queryById(userId);
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
@@ -1,17 +1,31 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.annotation.CacheStrategy;
+import com.hmdp.annotation.HmdpCached;
+import com.hmdp.annotation.HmdpEvict;
+import com.hmdp.dto.GeoScrollResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.exception.NoDataException;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.EntityBloomFilters;
+import com.hmdp.utils.GeoCursor;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ShopChangeEvent;
+import com.hmdp.utils.ShopGeoCache;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopSearchIndex;
 import com.hmdp.utils.SystemConstants;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -21,9 +35,11 @@ import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
 
@@ -41,60 +57,96 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    @Lazy
+    private IShopService proxy;
+
+    @Resource
+    private EntityBloomFilters entityBloomFilters;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopGeoCache shopGeoCache;
+
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    @Resource
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 附近商铺的查询半径（米）
+     */
+    private static final double NEARBY_RADIUS = 5000;
+
+    /**
+     * 滚动分页回退到 redis 时，第一次 GEOSEARCH 取回的商铺数，翻页超出时加倍重新查询
+     */
+    @Value("${hmdp.geo.scroll.max-results:1000}")
+    private int scrollMaxResults;
+
+    /**
+     * 滚动分页回退到 redis 时，查询结果在本地保留的时间
+     */
+    @Value("${hmdp.geo.scroll.result-ttl-seconds:60}")
+    private long scrollResultTtlSeconds;
+
+    /**
+     * 类型 + geohash 格子 -> 以格子中心查询的 GEOSEARCH 结果，格子内的请求共用，按各自的坐标重新计算距离后截取；
+     * 商铺新增、修改时随 ShopGeoCache 的格子删除通知在所有节点上清除
+     */
+    private Cache<String, ScrollCandidates> scrollResults;
+
+    @PostConstruct
+    private void init() {
+        scrollResults = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(scrollResultTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        // key 同为 typeId:geohash
+        shopGeoCache.addInvalidationListener(scrollResults::invalidate);
+    }
+
     /**
      * 根据id查询商户
      * @param id
      * @return
      */
     @Override
+    @HmdpCached(prefix = RedisConstants.CACHE_SHOP_KEY, ttl = RedisConstants.CACHE_SHOP_TTL, strategy = CacheStrategy.MUTEX)
     public Shop queryById(Long id) {
-        String key = RedisConstants.CACHE_SHOP_KEY + id;
-        // 从redis查询商户缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        // isNotBlank("") 为false，isNotBlank(null) 为false
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 缓存命中（非空非null）
-            Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-            return shop;
-        } else {
-            // 缓存命中，但是为""值
-            if (shopJson != null) {
-                throw new NoDataException("数据不存在");
-            }
+        // 本地缓存 -> redis -> 互斥锁重建，未命中时才查询数据库
+        return getById(id);
+    }
 
-            // 缓存未命中（互斥锁）
-            String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-
-            Shop shop = null;
-            try {
-                boolean isLock = tryLock(lockKey);
-
-                if (!isLock) {
-                    // 获取锁失败
-                    Thread.sleep(50);
-                    return queryById(id);
-                } else {
-                    // 获取锁成功
-                    shop = this.getById(id);
-                    if (shop == null) {
-                        // 缓存空值
-                        stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                        // 数据库不存在
-                        throw new NoDataException("数据不存在");
-                    } else {
-                        // 数据库存在
-                        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-                        return shop;
-                    }
-                }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                // 释放锁
-                unlock(lockKey);
-            }
-        }
+    /**
+     * 根据id批量查询商户：一次 MGET，未命中的 id 一次查询数据库
+     * @param ids
+     * @return
+     */
+    @Override
+    @HmdpCached(prefix = RedisConstants.CACHE_SHOP_KEY, ttl = RedisConstants.CACHE_SHOP_TTL)
+    public List<Shop> queryByIds(List<Long> ids) {
+        return listByIds(ids);
+    }
+
+    /**
+     * 新增商户信息
+     * @param shop
+     * @return 商户id
+     */
+    @Override
+    public Long saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器
+        entityBloomFilters.shop().add(shop.getId());
+        // 发布变更事件，更新本地坐标索引、shop:geo:{typeId} 和搜索索引；删除附近商铺结果缓存中受影响的格子
+        eventPublisher.publishEvent(new ShopChangeEvent(null, shop));
+        invalidateNearby(shop);
+        return shop.getId();
     }
 
     /**
@@ -103,17 +155,30 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      */
     @Override
     @Transactional
+    @HmdpEvict(prefix = RedisConstants.CACHE_SHOP_KEY, property = "id")
     public void updateShop(Shop shop) {
         Long id = shop.getId();
         if (id == null) {
             throw new NoDataException("数据不存在");
         }
 
-        // 更新数据库
+        Shop old = getById(id);
+        // 更新数据库，事务提交后删除缓存（redis + 所有节点的本地缓存）
         this.updateById(shop);
+        // 附近商铺结果缓存：新旧位置周围的格子都受影响，同样在事务提交后删除
+        invalidateNearby(old);
+        // 参数中可能只有部分字段，读取更新后的整行，
+        // 发布变更事件，事务提交后更新本地坐标索引、shop:geo:{typeId}（类型变化时从原类型中删除）和搜索索引
+        Shop updated = getById(id);
+        invalidateNearby(updated);
+        eventPublisher.publishEvent(new ShopChangeEvent(old, updated));
+    }
 
-        // 删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+    private void invalidateNearby(Shop shop) {
+        if (shop == null || shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        shopGeoCache.invalidate(shop.getTypeId(), shop.getX(), shop.getY(), NEARBY_RADIUS);
     }
 
     /**
@@ -138,60 +203,215 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
         int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
 
-        // 3.查询redis、按照距离排序、分页。结果：shopId、distance
-        String key = SHOP_GEO_KEY + typeId;
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo() // GEOSEARCH key BYLONLAT x y BYRADIUS 10 WITHDISTANCE
-                .search(
-                        key,
-                        GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
-                );
-        // 4.解析出id
-        if (results == null) {
-            return Result.ok(Collections.emptyList());
+        // 3.查询附近的商铺、按照距离排序，取前 end 个。结果：shopId、distance
+        // 3.1.同一 geohash 格子内的请求共用缓存的候选集，距离按当前坐标重新计算
+        Long type = typeId.longValue();
+        List<ShopGeoIndex.Nearby> list = shopGeoCache.query(type, x, y, NEARBY_RADIUS, -1, 0, end,
+                (cx, cy, radius, limit) -> searchNearby(type, cx, cy, radius, limit));
+        // 3.2.未命中可用的候选集时直接查询
+        if (list == null) {
+            list = searchNearby(type, x, y, NEARBY_RADIUS, end);
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
+        // 4.解析出id
         if (list.size() <= from) {
             // 没有下一页了，结束
             return Result.ok(Collections.emptyList());
         }
         // 4.1.截取 from ~ end的部分
         List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            // 4.2.获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            // 4.3.获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
+        Map<Long, Double> distanceMap = new HashMap<>(list.size() * 2);
+        list.stream().skip(from).forEach(nearby -> {
+            // 4.2.获取店铺id、距离
+            ids.add(nearby.getId());
+            distanceMap.put(nearby.getId(), nearby.getDistance());
         });
-        // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
-        }
+        // 5.根据id批量查询Shop缓存：一次 MGET，未命中的一次查询数据库，结果按距离顺序返回
+        List<Shop> shops = withDistance(proxy.queryByIds(ids), distanceMap);
         // 6.返回
         return Result.ok(shops);
     }
 
     /**
-     * 获取锁
-     * @param key
-     * @return
+     * 根据商铺类型滚动查询附近的商铺
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @Override
+    public GeoScrollResult queryShopByTypeScroll(Integer typeId, Double x, Double y, String cursor) {
+        // 1.解析游标
+        double afterDistance = -1;
+        long afterId = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            GeoCursor after = GeoCursor.decode(cursor);
+            afterDistance = after.getDistance();
+            afterId = after.getId();
+        }
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        // 2.从游标之后取一页：优先使用附近商铺结果缓存的候选集；
+        // 否则本地坐标索引直接从游标处继续，未就绪时使用缓存的 GEOSEARCH 结果
+        Long type = typeId.longValue();
+        List<ShopGeoIndex.Nearby> page = shopGeoCache.query(type, x, y, NEARBY_RADIUS, afterDistance, afterId, size,
+                (cx, cy, radius, limit) -> searchNearby(type, cx, cy, radius, limit));
+        if (page == null) {
+            page = shopGeoIndex.isReady(type)
+                    ? shopGeoIndex.searchAfter(type, x, y, NEARBY_RADIUS, afterDistance, afterId, size)
+                    : scrollRedis(type, x, y, afterDistance, afterId, size);
+        }
+        GeoScrollResult result = new GeoScrollResult();
+        if (page.isEmpty()) {
+            result.setList(Collections.emptyList());
+            return result;
+        }
+        // 3.批量查询商铺，设置距离
+        List<Long> ids = new ArrayList<>(page.size());
+        Map<Long, Double> distanceMap = new HashMap<>(page.size() * 2);
+        for (ShopGeoIndex.Nearby nearby : page) {
+            ids.add(nearby.getId());
+            distanceMap.put(nearby.getId(), nearby.getDistance());
+        }
+        result.setList(withDistance(proxy.queryByIds(ids), distanceMap));
+        // 4.不足一页说明没有下一页了
+        if (page.size() == size) {
+            ShopGeoIndex.Nearby last = page.get(page.size() - 1);
+            result.setCursor(new GeoCursor(last.getDistance(), last.getId()).encode());
+        }
+        return result;
+    }
+
+    /**
+     * 根据商铺名称关键字分页查询商铺信息，所有分支都不查询总数（前端只按页滚动加载）
+     * @param name 商铺名称关键字
+     * @param current 页码
+     * @return 商铺列表
+     */
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        // 页码从 1 开始，非法值按第一页处理，避免出现负的偏移量
+        current = Math.max(1, current);
+        // 1.没有关键字，或搜索索引尚未构建完成，查询数据库
+        if (StrUtil.isBlank(name) || !shopSearchIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, size, false));
+            return Result.ok(page.getRecords());
+        }
+        // 2.倒排索引查询一页商铺id，按匹配程度、评分、销量排序
+        List<Long> ids = shopSearchIndex.search(name, (current - 1) * size, size);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 3.根据id批量查询Shop缓存，结果按id顺序返回
+        return Result.ok(proxy.queryByIds(ids));
+    }
+
+    /**
+     * 缓存对象是共享的，复制后再设置距离
      */
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    private List<Shop> withDistance(List<Shop> shops, Map<Long, Double> distanceMap) {
+        return shops.stream()
+                .map(shop -> BeanUtil.copyProperties(shop, Shop.class)
+                        .setDistance(distanceMap.get(shop.getId())))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 滚动分页回退到 redis：坐标按 ShopGeoCache 的 geohash 格子量化，以格子中心、半径 + 半对角线执行一次 GEOSEARCH
+     * （最多 max-results 个）并在本地保留，格子内的请求按自己的坐标重新计算距离，从游标处截取一页。
+     * 结果被截断且这一页超出其覆盖范围时，COUNT 加倍重新查询（向外扩展一圈），直到覆盖这一页或取完半径内的全部商铺
+     */
+    private List<ShopGeoIndex.Nearby> scrollRedis(Long typeId, double x, double y,
+                                                  double afterDistance, long afterId, int size) {
+        ShopGeoCache.Cell cell = shopGeoCache.cell(x, y);
+        double reach = NEARBY_RADIUS + cell.halfDiagonal();
+        // 调用方到格子中心的距离，由三角不等式计入覆盖范围
+        double offset = ShopGeoIndex.distance(x, y, cell.centerX(), cell.centerY());
+        String key = typeId + ":" + cell.hash();
+        ScrollCandidates candidates = scrollResults.get(key,
+                k -> searchScrollCandidates(typeId, cell, reach, Math.max(size, scrollMaxResults)));
+        while (true) {
+            // 1.按调用方的坐标重新计算距离，取游标之后的一页
+            List<ShopGeoIndex.Nearby> list = new ArrayList<>();
+            for (ShopGeoIndex.Nearby nearby : candidates.list) {
+                double d = ShopGeoIndex.distance(x, y, nearby.getX(), nearby.getY());
+                if (d <= NEARBY_RADIUS && ShopGeoIndex.isAfter(d, nearby.getId(), afterDistance, afterId)) {
+                    list.add(new ShopGeoIndex.Nearby(nearby.getId(), d, nearby.getX(), nearby.getY()));
+                }
+            }
+            // 距离相同的商铺按 id 排列，与游标的顺序一致
+            list.sort(Comparator.comparingDouble(ShopGeoIndex.Nearby::getDistance)
+                    .thenComparingLong(ShopGeoIndex.Nearby::getId));
+            List<ShopGeoIndex.Nearby> page = list.size() > size ? new ArrayList<>(list.subList(0, size)) : list;
+            // 2.这一页需要的范围在覆盖范围内（满一页时到最后一个商铺，否则到半径）
+            double needed = page.size() == size ? page.get(page.size() - 1).getDistance() : NEARBY_RADIUS;
+            if (!candidates.truncated || needed + offset <= candidates.coverage) {
+                return page;
+            }
+            // 3.超出覆盖范围，加倍 COUNT 重新查询并替换缓存
+            candidates = searchScrollCandidates(typeId, cell, reach, candidates.list.size() * 2);
+            scrollResults.put(key, candidates);
+        }
+    }
+
+    private ScrollCandidates searchScrollCandidates(Long typeId, ShopGeoCache.Cell cell, double reach, int limit) {
+        ScrollCandidates candidates = new ScrollCandidates();
+        candidates.list = searchRedis(typeId, cell.centerX(), cell.centerY(), reach, limit);
+        candidates.truncated = candidates.list.size() >= limit;
+        // 被截断时只能保证最后一个商铺之内的都在结果中
+        candidates.coverage = candidates.truncated
+                ? candidates.list.get(candidates.list.size() - 1).getDistance() : reach;
+        return candidates;
+    }
+
+    /**
+     * 半径查询：优先查询本地坐标索引，该类型的索引尚未构建完成时查询 redis
+     */
+    private List<ShopGeoIndex.Nearby> searchNearby(Long typeId, double x, double y, double radius, int limit) {
+        return shopGeoIndex.isReady(typeId)
+                ? shopGeoIndex.search(typeId, x, y, radius, limit)
+                : searchRedis(typeId, x, y, radius, limit);
+    }
+
+    /**
+     * GEOSEARCH key FROMLONLAT x y BYRADIUS radius m ASC COUNT limit WITHDIST WITHCOORD
+     */
+    private List<ShopGeoIndex.Nearby> searchRedis(Long typeId, double x, double y, double radius, int limit) {
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
+                .search(
+                        SHOP_GEO_KEY + typeId,
+                        GeoReference.fromCoordinate(x, y),
+                        new Distance(radius),
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                                .includeDistance().includeCoordinates().sortAscending().limit(limit)
+                );
+        if (results == null) {
+            return Collections.emptyList();
+        }
+        List<ShopGeoIndex.Nearby> list = new ArrayList<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results.getContent()) {
+            RedisGeoCommands.GeoLocation<String> location = result.getContent();
+            list.add(new ShopGeoIndex.Nearby(Long.parseLong(location.getName()), result.getDistance().getValue(),
+                    location.getPoint().getX(), location.getPoint().getY()));
+        }
+        return list;
     }
 
     /**
-     * 释放锁
-     * @param key
+     * 一个格子的滚动分页候选集
      */
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    private static final class ScrollCandidates {
+        /**
+         * 按与格子中心的距离排列
+         */
+        private List<ShopGeoIndex.Nearby> list;
+        /**
+         * 是否达到 COUNT 上限
+         */
+        private boolean truncated;
+        /**
+         * 与格子中心距离不超过该值的商铺都在结果中
+         */
+        private double coverage;
     }
 }
@@ -1,20 +1,16 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.annotation.HmdpCached;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisConstants;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.Resource;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -27,26 +23,14 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
-    @Resource
-    private StringRedisTemplate stringRedisTemplate;
-
     /**
      * 获取商户分类
      * @return
      */
     @Override
+    @HmdpCached(prefix = RedisConstants.CACHE_SHOP_TYPE_KEY, ttl = RedisConstants.CACHE_SHOP_TYPE_TTL)
     public List<ShopType> queryTypeList() {
-        String shopTypeString = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_TYPE_KEY);
-        if (StrUtil.isNotBlank(shopTypeString)) {
-            // 缓存存在
-            List<ShopType> shopTypes = JSONUtil.toList(shopTypeString, ShopType.class);
-            return shopTypes;
-        } else {
-            // 缓存不存在
-            List<ShopType> shopTypes = this.baseMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
-
-            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(shopTypes), RedisConstants.CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
-            return shopTypes;
-        }
+        // 本地缓存 -> redis -> 数据库，未命中时才查询数据库
+        return this.baseMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
     }
 }
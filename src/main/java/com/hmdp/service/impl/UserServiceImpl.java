@@ -6,11 +6,14 @@ import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.HmdpCached;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.EntityBloomFilters;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
@@ -30,6 +33,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -46,9 +50,17 @@ import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
 @Slf4j
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
 
+    /**
+     * 用户公开信息的列，缓存中只保存这些字段
+     */
+    private static final String[] USER_DTO_COLUMNS = {"id", "nick_name", "icon"};
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private EntityBloomFilters entityBloomFilters;
+
     /**
      * 发送短信验证码
      * @param phone
@@ -258,6 +270,33 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
         user.setPassword(DigestUtils.md5Hex("123456"));
         save(user);
+        entityBloomFilters.user().add(user.getId());
         return user;
     }
+
+    /**
+     * 根据id查询用户的公开信息，只查询、缓存 id、昵称、头像，手机号和密码不进入缓存
+     * @param id
+     * @return
+     */
+    @Override
+    @HmdpCached(prefix = CACHE_USER_KEY, ttl = CACHE_USER_TTL)
+    public UserDTO queryById(Long id) {
+        User user = query().select(USER_DTO_COLUMNS).eq("id", id).one();
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    /**
+     * 根据id批量查询用户的公开信息：一次 MGET，未命中的 id 一次查询数据库
+     * @param ids
+     * @return
+     */
+    @Override
+    @HmdpCached(prefix = CACHE_USER_KEY, ttl = CACHE_USER_TTL)
+    public List<UserDTO> queryByIds(List<Long> ids) {
+        return query().select(USER_DTO_COLUMNS).in("id", ids).list()
+                .stream()
+                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                .collect(Collectors.toList());
+    }
 }
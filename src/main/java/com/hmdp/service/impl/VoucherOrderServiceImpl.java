@@ -1,34 +1,50 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
+import com.hmdp.exception.BaseException;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.OrderQueue;
+import com.hmdp.utils.OrderTimeoutQueue;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillResultNotifier;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillVoucherMeta;
+import com.hmdp.utils.SeckillVoucherMetaCache;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RELEASED_TTL;
 
 /**
  * <p>
@@ -38,6 +54,7 @@ import java.util.concurrent.Executors;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -51,13 +68,70 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillResultNotifier seckillResultNotifier;
+
+    @Resource
+    private SeckillVoucherMetaCache seckillVoucherMetaCache;
+
+    @Resource
+    private OrderQueue orderQueue;
 
-    //异步处理线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    @Resource
+    private OrderTimeoutQueue orderTimeoutQueue;
 
+    @Resource
+    @Lazy
     private IVoucherOrderService proxy;
 
+    /**
+     * 吞吐量统计的输出间隔
+     */
+    @Value("${hmdp.seckill.order.report-interval-seconds:10}")
+    private long reportIntervalSeconds;
+
+    /**
+     * 未支付订单的超时时间，超时后自动取消并归还库存
+     */
+    @Value("${hmdp.seckill.order.pay-timeout-minutes:15}")
+    private long payTimeoutMinutes;
+
+    /**
+     * 每次认领的超时订单数
+     */
+    @Value("${hmdp.seckill.order.timeout-batch-size:100}")
+    private int timeoutBatchSize;
+
+    /**
+     * 超时订单的轮询间隔
+     */
+    @Value("${hmdp.seckill.order.timeout-poll-ms:1000}")
+    private long timeoutPollMs;
+
+    // 超时订单轮询线程
+    private ScheduledExecutorService timeoutExecutor;
+
+    /**
+     * 认领超时订单后的处理租约，超过后未处理完的订单会被重新认领
+     */
+    private static final long TIMEOUT_CLAIM_LEASE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    // 吞吐量统计：上次输出之后落库的订单数、上次输出的时间
+    private final LongAdder persistedOrders = new LongAdder();
+    private final AtomicLong lastReportTime = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * seckill.lua 的返回值：归属分段没有库存，已占用购买资格
+     */
+    private static final int RESERVED = 5;
+
+    /**
+     * 本地预判秒杀时间时容忍的应用节点与 Redis 之间的时钟偏差
+     */
+    private static final long CLOCK_SKEW_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
@@ -65,92 +139,167 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+    static {
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> UNRESERVE_SCRIPT;
+    static {
+        UNRESERVE_SCRIPT = new DefaultRedisScript<>();
+        UNRESERVE_SCRIPT.setLocation(new ClassPathResource("seckill_unreserve.lua"));
+        UNRESERVE_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
     //在类初始化之后执行，因为当这个类初始化好了之后，随时都是有可能要执行的
     @PostConstruct
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
-    }
-    // 用于线程池处理的任务
-    // 当初始化完毕后，就会去从对列中去拿信息
-    private class VoucherOrderHandler implements Runnable {
-
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())
-                    );
-
-                    // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null，说明没有消息，继续下一次循环
-                        continue;
-                    }
-
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-
-                    // 3.创建订单
-                    createVoucherOrder(voucherOrder);
-                    // 4.确认消息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-
-                } catch (Exception e) {
-                    log.error("处理订单异常", e);
-                    //处理异常消息
-                    handlePendingList();
-                }
+        orderQueue.start(new OrderQueue.Handler() {
+            @Override
+            public void handle(List<VoucherOrder> orders) {
+                persistOrders(orders);
             }
-        }
+
+            @Override
+            public void discard(List<VoucherOrder> orders) {
+                discardOrders(orders);
+            }
+        });
+        // 定时取消超时未支付的订单
+        timeoutExecutor = Executors.newSingleThreadScheduledExecutor();
+        timeoutExecutor.scheduleWithFixedDelay(this::cancelExpiredOrders,
+                timeoutPollMs, timeoutPollMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        orderQueue.stop();
+        timeoutExecutor.shutdownNow();
+    }
+
+    /**
+     * 批量创建订单，加入超时取消队列，写入订单结果，通知等待中的客户端
+     */
+    private void persistOrders(List<VoucherOrder> orders) {
+        proxy.createVoucherOrders(orders);
+        recordThroughput(orders.size());
+        List<Long> orderIds = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        orderTimeoutQueue.schedule(orderIds,
+                System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(payTimeoutMinutes));
+        notifyResults(orders, SeckillResultNotifier.SUCCESS);
     }
 
     /**
-     * 处理消息队列异常信息
+     * 放弃多次落库失败的订单：归还 Redis 库存和购买资格，通知客户端下单失败。
+     * 落库失败时事务已回滚，MySQL 库存没有扣减；重复调用时脚本按订单id保证只归还一次
      */
-    private void handlePendingList() {
-        while (true) {
-            try {
-                // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create("stream.orders", ReadOffset.from("0"))
-                );
-                // 2.判断订单信息是否为空
-                if (list == null || list.isEmpty()) {
-                    // 如果为null，说明没有异常消息，结束循环
-                    break;
+    private void discardOrders(List<VoucherOrder> orders) {
+        List<VoucherOrder> released = releaseStock(orders);
+        released.stream().map(VoucherOrder::getVoucherId).distinct()
+                .forEach(seckillSoldOutCache::reset);
+        log.error("放弃落库失败的订单 {} 单，归还 Redis 库存 {} 单", orders.size(), released.size());
+        notifyResults(orders, SeckillResultNotifier.FAILED);
+    }
+
+    /**
+     * 取消超时未支付的订单：
+     * 批量认领到期订单 -> 一个事务内取消订单并归还 MySQL 库存 -> 逐单 Lua 归还 Redis 库存和购买资格 -> 移出延时队列
+     */
+    private void cancelExpiredOrders() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // 1.认领到期订单
+                List<String> members = orderTimeoutQueue.claim(
+                        System.currentTimeMillis(), timeoutBatchSize, TIMEOUT_CLAIM_LEASE_MILLIS);
+                if (members.isEmpty()) {
+                    return;
                 }
-                // 解析数据
-                MapRecord<String, Object, Object> record = list.get(0);
-                Map<Object, Object> value = record.getValue();
-                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                // 3.创建订单
-                createVoucherOrder(voucherOrder);
-                // 4.确认消息 XACK
-                stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
-            } catch (Exception e) {
-                log.error("处理pendding订单异常", e);
-                try{
-                    Thread.sleep(20);
-                }catch(Exception exception){
-                    exception.printStackTrace();
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
-                    }
+                List<Long> orderIds = members.stream().map(Long::valueOf).collect(Collectors.toList());
+                // 2.取消订单、归还 MySQL 库存，已支付的订单不受影响
+                List<VoucherOrder> cancelled = proxy.cancelTimeoutOrders(orderIds);
+                // 3.归还 Redis 库存，移除用户的购买记录。包括之前已取消、但归还前中断后被重新认领的订单，
+                // 脚本按订单id保证只归还一次
+                if (!cancelled.isEmpty()) {
+                    List<VoucherOrder> released = releaseStock(cancelled);
+                    // 有库存归还，清除售罄标记
+                    released.stream().map(VoucherOrder::getVoucherId).distinct()
+                            .forEach(seckillSoldOutCache::reset);
+                    log.info("取消超时订单 {} 单，归还 Redis 库存 {} 单", cancelled.size(), released.size());
+                }
+                // 4.移出延时队列
+                orderTimeoutQueue.complete(members);
+                if (members.size() < timeoutBatchSize) {
+                    return;
                 }
             }
+        } catch (Exception e) {
+            // 未完成的订单在认领租约到期后会被重新认领
+            log.error("取消超时订单异常", e);
         }
     }
 
+    /**
+     * 归还取消或放弃的订单占用的 Redis 库存和购买资格，每单一次脚本调用，只访问用户归属分段的 key
+     * @return 本次实际归还的订单，之前已经归还过的不在其中
+     */
+    private List<VoucherOrder> releaseStock(List<VoucherOrder> orders) {
+        String ttl = String.valueOf(TimeUnit.HOURS.toSeconds(SECKILL_RELEASED_TTL));
+        List<VoucherOrder> released = new ArrayList<>(orders.size());
+        for (VoucherOrder order : orders) {
+            SeckillVoucherMeta meta = seckillVoucherMetaCache.get(order.getVoucherId());
+            int home = SeckillKeys.home(order.getUserId(), meta);
+            Long result = stringRedisTemplate.execute(RELEASE_SCRIPT,
+                    Arrays.asList(SeckillKeys.stock(order.getVoucherId(), meta, home),
+                            SeckillKeys.buyers(order.getVoucherId(), meta, home),
+                            SeckillKeys.released(order.getVoucherId(), meta, home)),
+                    order.getUserId().toString(), order.getId().toString(), ttl);
+            if (result != null && result == 1) {
+                released.add(order);
+            }
+        }
+        return released;
+    }
+
+    /**
+     * 写入订单结果，失败只记录日志，客户端查询不到结果时会继续等待
+     */
+    private void notifyResults(List<VoucherOrder> orders, int status) {
+        try {
+            Map<Long, Integer> results = new LinkedHashMap<>(orders.size() * 2);
+            for (VoucherOrder order : orders) {
+                results.put(order.getId(), status);
+            }
+            seckillResultNotifier.publish(results);
+        } catch (Exception e) {
+            log.error("写入订单结果失败", e);
+        }
+    }
+
+    /**
+     * 累计落库订单数，并按间隔输出 orders/s
+     */
+    private void recordThroughput(int count) {
+        persistedOrders.add(count);
+        long now = System.currentTimeMillis();
+        long last = lastReportTime.get();
+        long elapsed = now - last;
+        if (elapsed < TimeUnit.SECONDS.toMillis(reportIntervalSeconds) || !lastReportTime.compareAndSet(last, now)) {
+            return;
+        }
+        long total = persistedOrders.sumThenReset();
+        log.info("订单落库吞吐量：{} orders/s（{} 单 / {} ms）",
+                String.format("%.1f", total * 1000.0 / elapsed), total, elapsed);
+    }
+
     /**
      * 代金券秒杀
      * @param voucherId
@@ -158,50 +307,216 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 0.本地售罄标记命中，直接返回，不再访问 Redis
+        if (seckillSoldOutCache.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 0.1.本地元数据粗略判断秒杀时间，留出时钟偏差的余量，明显不在时间内时直接返回；
+        // 准确的判断由 seckill.lua 按 Redis 时间完成
+        long now = System.currentTimeMillis();
+        SeckillVoucherMeta meta = seckillVoucherMetaCache.get(voucherId);
+        if (meta != null && meta.notBegun(now + CLOCK_SKEW_MILLIS)) {
+            return Result.fail("秒杀尚未开始");
+        }
+        if (meta != null && meta.ended(now - CLOCK_SKEW_MILLIS)) {
+            return Result.fail("秒杀已经结束");
+        }
         //获取用户
         Long userId = UserHolder.getUser().getId();
         //获取订单id
         long orderId = redisIdWorker.nextId("order");
+        // 扣库存之前的补充库存版本，售罄标记带上该版本，不会覆盖之后的补充库存
+        long restockVersion = seckillSoldOutCache.version(voucherId);
 
-        // 1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
-        int r = result.intValue();
+        // 1.执行lua脚本：在归属分段上校验并扣库存，归属分段售罄时再依次扣其它分段
+        int r = seckill(voucherId, userId, orderId, meta);
         // 2.判断结果是否为0
         if (r != 0) {
             // 2.1.不为0 ，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            switch (r) {
+                case 1:
+                    // 售罄，记录本地标记并广播
+                    seckillSoldOutCache.markSoldOut(voucherId, restockVersion);
+                    return Result.fail("库存不足");
+                case 2:
+                    return Result.fail("超过限购数量");
+                case 3:
+                    return Result.fail("秒杀尚未开始");
+                default:
+                    return Result.fail("秒杀已经结束");
+            }
         }
 
-        //3.获取代理对象
-        proxy = (IVoucherOrderService)AopContext.currentProxy();
+        // 3.订单入队（stream 模式下脚本已写入 Stream）
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(orderId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(voucherId);
+        if (!orderQueue.offer(voucherOrder)) {
+            // 3.1.队列已满，由请求线程直接落库
+            log.warn("订单队列已满，同步创建订单，orderId={}", orderId);
+            persistOrders(Collections.singletonList(voucherOrder));
+        }
 
         // 4.返回orderId
         return Result.ok(orderId);
     }
 
+    /**
+     * 扣减秒杀库存。分段由这里选定，每次脚本调用只访问一个分段的 key：
+     * 1.seckill.lua 在归属分段上按 Redis 时间校验秒杀时间，校验限购并扣库存，归属分段没有库存时占用购买资格返回 5；
+     * 2.依次在其它分段上执行 seckill_take.lua 扣库存；
+     * 3.所有分段都没有库存时退回占用的购买资格
+     * @param meta 元数据，旧秒杀券为 null（不限时、每人一单、单key）
+     * @return 0成功，1库存不足，2超过限购，3尚未开始，4已经结束
+     */
+    private int seckill(Long voucherId, Long userId, long orderId, SeckillVoucherMeta meta) {
+        int segments = meta == null ? 1 : meta.getSegments();
+        int home = SeckillKeys.home(userId, meta);
+        boolean stream = orderQueue.scriptStream();
+        String streamKey = stream ? orderStream(voucherId, meta, home) : null;
+        String buyersKey = SeckillKeys.buyers(voucherId, meta, home);
+
+        // 1.归属分段
+        List<String> keys = new ArrayList<>(4);
+        keys.add(SeckillKeys.stock(voucherId, meta, home));
+        keys.add(buyersKey);
+        if (streamKey != null) {
+            keys.add(streamKey);
+        }
+        if (meta == null) {
+            keys.add(SeckillKeys.legacyOrder(voucherId));
+        }
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, keys,
+                userId.toString(), voucherId.toString(), String.valueOf(orderId),
+                String.valueOf(meta == null ? 1 : meta.getUserLimit()),
+                String.valueOf(meta == null ? 0 : meta.getBeginTime()),
+                String.valueOf(meta == null ? 0 : meta.getEndTime()),
+                segments > 1 ? "1" : "0",
+                streamKey != null ? "1" : "0",
+                meta == null ? "1" : "0");
+        int r = result.intValue();
+        if (r != RESERVED) {
+            return r;
+        }
+        // 2.其它分段，从相邻分段开始
+        for (int i = 1; i < segments; i++) {
+            int segment = (home + i) % segments;
+            // 订单写入扣库存的分段的 Stream，与该分段的库存在同一个 slot
+            List<String> takeKeys = new ArrayList<>(2);
+            takeKeys.add(SeckillKeys.stock(voucherId, meta, segment));
+            if (stream) {
+                takeKeys.add(orderStream(voucherId, meta, segment));
+            }
+            Long taken = stringRedisTemplate.execute(TAKE_SCRIPT, takeKeys,
+                    userId.toString(), voucherId.toString(), String.valueOf(orderId), stream ? "1" : "0");
+            if (taken != null && taken == 0) {
+                return 0;
+            }
+        }
+        // 3.所有分段都已售罄
+        stringRedisTemplate.execute(UNRESERVE_SCRIPT, Collections.singletonList(buyersKey), userId.toString());
+        return 1;
+    }
+
+    /**
+     * 分段的订单 Stream，第一次使用时由队列创建消费者组并登记
+     */
+    private String orderStream(Long voucherId, SeckillVoucherMeta meta, int segment) {
+        String streamKey = SeckillKeys.orderStream(voucherId, meta, segment);
+        orderQueue.prepareStream(streamKey);
+        return streamKey;
+    }
+
+    /**
+     * 查询秒杀订单结果，结果未出时挂起请求，直到结果到达或超时
+     * @param orderId 订单id
+     * @param timeoutMillis 最长等待时间
+     * @return 订单状态：0处理中，1成功，2失败
+     */
+    @Override
+    public DeferredResult<Result> queryOrderResult(Long orderId, long timeoutMillis) {
+        DeferredResult<Result> deferredResult = new DeferredResult<>(timeoutMillis, Result.ok(SeckillResultNotifier.PENDING));
+        // 1.结果已经写入，直接返回
+        int status = seckillResultNotifier.query(orderId);
+        if (status != SeckillResultNotifier.PENDING) {
+            deferredResult.setResult(Result.ok(status));
+            return deferredResult;
+        }
+        // 2.等待结果通知
+        CompletableFuture<Integer> future = seckillResultNotifier.await(orderId);
+        future.thenAccept(s -> deferredResult.setResult(Result.ok(s)));
+        deferredResult.onTimeout(() -> seckillResultNotifier.cancel(orderId));
+        return deferredResult;
+    }
+
+    /**
+     * 批量创建订单：一条多值 INSERT，按优惠券分组扣减库存
+     * @param voucherOrders
+     */
+    @Override
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        // 5.一人一单
-        Long userId = voucherOrder.getUserId();
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1.过滤已经落库的订单（pending-list 重放时可能重复投递）
+        List<Long> ids = voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> existIds = query().select("id").in("id", ids).list()
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        List<VoucherOrder> orders = voucherOrders.stream()
+                .filter(o -> !existIds.contains(o.getId()))
+                .collect(Collectors.toList());
+        if (orders.isEmpty()) {
+            return;
+        }
+
+        // 2.按优惠券分组扣减库存 stock = stock - k
+        Map<Long, Long> countByVoucher = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        for (Map.Entry<Long, Long> entry : countByVoucher.entrySet()) {
+            long k = entry.getValue();
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + k)
+                    .eq("voucher_id", entry.getKey()).ge("stock", k).update();
+            if (!success) {
+                // 数据库库存少于本批订单数，整批回滚，由 pending-list 重试或移入死信队列，不能多于库存落单
+                throw new BaseException("库存不足，voucherId=" + entry.getKey() + "，需要扣减" + k);
+            }
+        }
 
-        Integer count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        if (count > 0) {
-            log.error("用户重复购买");
+        // 3.一条多值 INSERT 创建订单
+        getBaseMapper().insertBatch(orders);
+    }
+
+    /**
+     * 批量取消超时未支付的订单，状态改为 4（已取消），按优惠券分组归还库存
+     * @param orderIds 到期的订单id
+     * @return 已取消的订单，包括本次取消的和之前已经取消的（已支付或尚未落库的订单不在其中），
+     * 调用方据此归还 Redis 库存
+     */
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelTimeoutOrders(List<Long> orderIds) {
+        // 1.锁定未支付和已取消的订单，避免与支付并发
+        List<VoucherOrder> orders = query().select("id", "user_id", "voucher_id", "status")
+                .in("id", orderIds).in("status", 1, 4).last("FOR UPDATE").list();
+        List<VoucherOrder> unpaid = orders.stream()
+                .filter(o -> o.getStatus() == 1)
+                .collect(Collectors.toList());
+        if (unpaid.isEmpty()) {
+            return orders;
         }
 
-        //6.扣减库存
-        boolean success = seckillVoucherService.update()
-                .setSql("stock= stock -1")
-                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0).update();
-        if (!success) {
-            //扣减库存
-            log.error("库存不足");
+        // 2.取消订单 status = 4
+        List<Long> ids = unpaid.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        update().set("status", 4).in("id", ids).eq("status", 1).update();
+
+        // 3.按优惠券分组归还库存 stock = stock + k，之前已经取消的订单已归还过
+        Map<Long, Long> countByVoucher = unpaid.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        for (Map.Entry<Long, Long> entry : countByVoucher.entrySet()) {
+            seckillVoucherService.update()
+                    .setSql("stock = stock + " + entry.getValue())
+                    .eq("voucher_id", entry.getKey()).update();
         }
-        //7.创建订单
-        save(voucherOrder);
+        return orders;
     }
 }
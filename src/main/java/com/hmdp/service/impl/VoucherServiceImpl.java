@@ -5,17 +5,24 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.exception.BaseException;
+import com.hmdp.exception.NoDataException;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillVoucherMeta;
+import com.hmdp.utils.SeckillVoucherMetaCache;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -33,6 +40,18 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillVoucherMetaCache seckillVoucherMetaCache;
+
+    /**
+     * 秒杀库存分段数，大于1时把库存拆到多个key（不同 slot）上，分散热点优惠券的压力
+     */
+    @Value("${hmdp.seckill.stock-segments:1}")
+    private int stockSegments;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -47,14 +66,68 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         // 保存优惠券
         save(voucher);
         // 保存秒杀信息（mysql）
+        int userLimit = voucher.getUserLimit() == null ? 1 : voucher.getUserLimit();
         SeckillVoucher seckillVoucher = new SeckillVoucher();
         seckillVoucher.setVoucherId(voucher.getId());
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        seckillVoucher.setUserLimit(userLimit);
         seckillVoucherService.save(seckillVoucher);
 
-        // 保存秒杀信息（redis）
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存秒杀信息（redis）：库存均分到各分段的 key，余数分给前面的分段
+        SeckillVoucherMeta meta = new SeckillVoucherMeta(
+                toEpochMilli(voucher.getBeginTime()),
+                toEpochMilli(voucher.getEndTime()),
+                userLimit,
+                Math.max(stockSegments, 1));
+        int[] segmentStocks = splitStock(voucher.getStock(), meta.getSegments());
+        for (int i = 0; i < meta.getSegments(); i++) {
+            stringRedisTemplate.opsForValue().set(
+                    SeckillKeys.stock(voucher.getId(), meta, i), String.valueOf(segmentStocks[i]));
+        }
+        // 预热元数据（redis + 本地），秒杀时间和限购在 seckill.lua 中原子校验
+        seckillVoucherMetaCache.put(voucher.getId(), meta);
+    }
+
+    @Override
+    @Transactional
+    public void addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            throw new BaseException("补充数量必须大于0");
+        }
+        // 补充库存（mysql）
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId).update();
+        if (!success) {
+            throw new NoDataException("秒杀券不存在");
+        }
+        // 补充库存（redis），旧秒杀券没有元数据，补充到单key
+        SeckillVoucherMeta meta = seckillVoucherMetaCache.get(voucherId);
+        int m = meta == null ? 1 : meta.getSegments();
+        int[] segmentStocks = splitStock(count, m);
+        for (int i = 0; i < m; i++) {
+            if (segmentStocks[i] > 0) {
+                stringRedisTemplate.opsForValue().increment(SeckillKeys.stock(voucherId, meta, i), segmentStocks[i]);
+            }
+        }
+        // 清除售罄标记
+        seckillSoldOutCache.reset(voucherId);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time == null ? 0L : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 把库存均分为 m 份，余数依次分给前面的分段
+     */
+    private static int[] splitStock(int stock, int m) {
+        int[] result = new int[m];
+        for (int i = 0; i < m; i++) {
+            result[i] = stock / m + (i < stock % m ? 1 : 0);
+        }
+        return result;
     }
 }
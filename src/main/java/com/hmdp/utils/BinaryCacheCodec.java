@@ -0,0 +1,433 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * 紧凑二进制编码。格式：
+ * <pre>
+ * [魔数 0xC5][标志位][过期时间 8 字节，标志位 bit0 = 1 时存在][重建耗时 varint，标志位 bit1 = 1 时存在][类型][数据]
+ * </pre>
+ * Shop、Blog、UserDTO 按固定字段顺序写入：开头一个 varint 位图标记非空字段，
+ * 整数为 zigzag varint，浮点数 8 字节，字符串为 varint 长度 + UTF-8，时间为毫秒时间戳（UTC）；
+ * null 只写类型，其它类型写入 JSON。不以魔数开头的数据按 JSON 解析，兼容切换编码前写入的缓存
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "binary", matchIfMissing = true)
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xC5;
+    private static final int FLAG_EXPIRE = 1;
+    private static final int FLAG_DELTA = 2;
+
+    private static final byte TYPE_JSON = 0;
+    private static final byte TYPE_SHOP = 1;
+    private static final byte TYPE_BLOG = 2;
+    /**
+     * 3 是旧版本的完整 User，已不再写入
+     */
+    private static final byte TYPE_USER_DTO = 4;
+    private static final byte TYPE_NULL = 5;
+
+    @Override
+    public byte[] encode(Object value) {
+        Writer writer = new Writer();
+        writer.writeByte(MAGIC);
+        writer.writeByte(0);
+        writeValue(writer, value);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (bytes[0] != MAGIC) {
+            return JsonCacheCodec.fromJson(new String(bytes, StandardCharsets.UTF_8), type);
+        }
+        Reader reader = new Reader(bytes);
+        reader.readByte();
+        int flags = reader.readByte();
+        if ((flags & FLAG_EXPIRE) != 0) {
+            reader.readFixedLong();
+        }
+        if ((flags & FLAG_DELTA) != 0) {
+            reader.readVarLong();
+        }
+        return type.cast(readValue(reader, type));
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireTime) {
+        Writer writer = new Writer();
+        writer.writeByte(MAGIC);
+        writer.writeByte(FLAG_EXPIRE);
+        writer.writeFixedLong(expireTime);
+        writeValue(writer, value);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        RedisData redisData = new RedisData();
+        if (bytes[0] != MAGIC) {
+            // 旧格式：JSON 的 RedisData
+            RedisData json = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            redisData.setExpireTime(json.getExpireTime());
+            redisData.setData(JSONUtil.toBean(JSONUtil.toJsonStr(json.getData()), type));
+            return redisData;
+        }
+        Reader reader = new Reader(bytes);
+        reader.readByte();
+        int flags = reader.readByte();
+        // 没有过期时间的数据视为已过期
+        redisData.setExpireTime((flags & FLAG_EXPIRE) != 0 ? reader.readFixedLong() : 0L);
+        redisData.setDelta((flags & FLAG_DELTA) != 0 ? reader.readVarLong() : 0L);
+        redisData.setData(readValue(reader, type));
+        return redisData;
+    }
+
+    @Override
+    public byte[] encodeWithRefresh(Object value, long expireTime, long delta) {
+        Writer writer = new Writer();
+        writer.writeByte(MAGIC);
+        writer.writeByte(FLAG_EXPIRE | FLAG_DELTA);
+        writer.writeFixedLong(expireTime);
+        writer.writeVarLong(delta);
+        writeValue(writer, value);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public RedisData decodeWithRefresh(byte[] bytes, Class<?> type) {
+        if (bytes[0] != MAGIC) {
+            // 旧格式：没有刷新信息的 JSON
+            RedisData redisData = new RedisData();
+            redisData.setData(JsonCacheCodec.fromJson(new String(bytes, StandardCharsets.UTF_8), type));
+            return redisData;
+        }
+        return decodeWithExpire(bytes, type);
+    }
+
+    private static void writeValue(Writer writer, Object value) {
+        if (value == null) {
+            // 逻辑过期重建时数据可能已被删除
+            writer.writeByte(TYPE_NULL);
+        } else if (value instanceof Shop) {
+            writer.writeByte(TYPE_SHOP);
+            writeShop(writer, (Shop) value);
+        } else if (value instanceof Blog) {
+            writer.writeByte(TYPE_BLOG);
+            writeBlog(writer, (Blog) value);
+        } else if (value instanceof UserDTO) {
+            writer.writeByte(TYPE_USER_DTO);
+            writeUser(writer, (UserDTO) value);
+        } else {
+            writer.writeByte(TYPE_JSON);
+            writer.writeRaw(JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Object readValue(Reader reader, Class<?> type) {
+        byte tag = reader.readByte();
+        switch (tag) {
+            case TYPE_SHOP:
+                return readShop(reader);
+            case TYPE_BLOG:
+                return readBlog(reader);
+            case TYPE_USER_DTO:
+                return readUser(reader);
+            case TYPE_NULL:
+                return null;
+            default:
+                return JsonCacheCodec.fromJson(new String(reader.readRemaining(), StandardCharsets.UTF_8), type);
+        }
+    }
+
+    private static void writeShop(Writer w, Shop shop) {
+        w.writePresence(shop.getId(), shop.getName(), shop.getTypeId(), shop.getImages(), shop.getArea(),
+                shop.getAddress(), shop.getX(), shop.getY(), shop.getAvgPrice(), shop.getSold(),
+                shop.getComments(), shop.getScore(), shop.getOpenHours(), shop.getCreateTime(),
+                shop.getUpdateTime(), shop.getDistance());
+        w.writeLong(shop.getId());
+        w.writeString(shop.getName());
+        w.writeLong(shop.getTypeId());
+        w.writeString(shop.getImages());
+        w.writeString(shop.getArea());
+        w.writeString(shop.getAddress());
+        w.writeDouble(shop.getX());
+        w.writeDouble(shop.getY());
+        w.writeLong(shop.getAvgPrice());
+        w.writeInt(shop.getSold());
+        w.writeInt(shop.getComments());
+        w.writeInt(shop.getScore());
+        w.writeString(shop.getOpenHours());
+        w.writeTime(shop.getCreateTime());
+        w.writeTime(shop.getUpdateTime());
+        w.writeDouble(shop.getDistance());
+    }
+
+    private static Shop readShop(Reader r) {
+        r.readPresence();
+        Shop shop = new Shop();
+        shop.setId(r.readLong());
+        shop.setName(r.readString());
+        shop.setTypeId(r.readLong());
+        shop.setImages(r.readString());
+        shop.setArea(r.readString());
+        shop.setAddress(r.readString());
+        shop.setX(r.readDouble());
+        shop.setY(r.readDouble());
+        shop.setAvgPrice(r.readLong());
+        shop.setSold(r.readInt());
+        shop.setComments(r.readInt());
+        shop.setScore(r.readInt());
+        shop.setOpenHours(r.readString());
+        shop.setCreateTime(r.readTime());
+        shop.setUpdateTime(r.readTime());
+        shop.setDistance(r.readDouble());
+        return shop;
+    }
+
+    private static void writeBlog(Writer w, Blog blog) {
+        w.writePresence(blog.getId(), blog.getShopId(), blog.getUserId(), blog.getIcon(), blog.getName(),
+                blog.getIsLike(), blog.getTitle(), blog.getImages(), blog.getContent(), blog.getLiked(),
+                blog.getComments(), blog.getCreateTime(), blog.getUpdateTime());
+        w.writeLong(blog.getId());
+        w.writeLong(blog.getShopId());
+        w.writeLong(blog.getUserId());
+        w.writeString(blog.getIcon());
+        w.writeString(blog.getName());
+        w.writeBoolean(blog.getIsLike());
+        w.writeString(blog.getTitle());
+        w.writeString(blog.getImages());
+        w.writeString(blog.getContent());
+        w.writeInt(blog.getLiked());
+        w.writeInt(blog.getComments());
+        w.writeTime(blog.getCreateTime());
+        w.writeTime(blog.getUpdateTime());
+    }
+
+    private static Blog readBlog(Reader r) {
+        r.readPresence();
+        Blog blog = new Blog();
+        blog.setId(r.readLong());
+        blog.setShopId(r.readLong());
+        blog.setUserId(r.readLong());
+        blog.setIcon(r.readString());
+        blog.setName(r.readString());
+        blog.setIsLike(r.readBoolean());
+        blog.setTitle(r.readString());
+        blog.setImages(r.readString());
+        blog.setContent(r.readString());
+        blog.setLiked(r.readInt());
+        blog.setComments(r.readInt());
+        blog.setCreateTime(r.readTime());
+        blog.setUpdateTime(r.readTime());
+        return blog;
+    }
+
+    private static void writeUser(Writer w, UserDTO user) {
+        w.writePresence(user.getId(), user.getNickName(), user.getIcon());
+        w.writeLong(user.getId());
+        w.writeString(user.getNickName());
+        w.writeString(user.getIcon());
+    }
+
+    private static UserDTO readUser(Reader r) {
+        r.readPresence();
+        UserDTO user = new UserDTO();
+        user.setId(r.readLong());
+        user.setNickName(r.readString());
+        user.setIcon(r.readString());
+        return user;
+    }
+
+    /**
+     * 可扩容的字节缓冲区，null 字段只记录在位图中，不写入数据
+     */
+    private static final class Writer {
+
+        private byte[] buf = new byte[256];
+        private int pos;
+
+        void writePresence(Object... fields) {
+            long mask = 0;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] != null) {
+                    mask |= 1L << i;
+                }
+            }
+            writeVarLong(mask);
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeFixedLong(long v) {
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (v >>> i);
+            }
+        }
+
+        void writeLong(Long v) {
+            if (v != null) {
+                writeVarLong((v << 1) ^ (v >> 63));
+            }
+        }
+
+        void writeInt(Integer v) {
+            if (v != null) {
+                writeVarLong(((long) v << 1) ^ ((long) v >> 63));
+            }
+        }
+
+        void writeBoolean(Boolean v) {
+            if (v != null) {
+                writeByte(v ? 1 : 0);
+            }
+        }
+
+        void writeDouble(Double v) {
+            if (v != null) {
+                writeFixedLong(Double.doubleToRawLongBits(v));
+            }
+        }
+
+        void writeTime(LocalDateTime v) {
+            if (v != null) {
+                writeLong(v.toInstant(ZoneOffset.UTC).toEpochMilli());
+            }
+        }
+
+        void writeString(String v) {
+            if (v != null) {
+                byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(bytes.length);
+                writeRaw(bytes);
+            }
+        }
+
+        void writeRaw(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        private void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    /**
+     * 按写入顺序读取，位图中没有标记的字段返回 null
+     */
+    private static final class Reader {
+
+        private final byte[] buf;
+        private int pos;
+        private long presence;
+        private int field;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        void readPresence() {
+            presence = readVarLong();
+            field = 0;
+        }
+
+        private boolean present() {
+            return (presence & (1L << field++)) != 0;
+        }
+
+        byte readByte() {
+            return buf[pos++];
+        }
+
+        long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        Long readLong() {
+            return present() ? readZigZag() : null;
+        }
+
+        Integer readInt() {
+            return present() ? (int) readZigZag() : null;
+        }
+
+        Boolean readBoolean() {
+            return present() ? buf[pos++] != 0 : null;
+        }
+
+        Double readDouble() {
+            return present() ? Double.longBitsToDouble(readFixedLong()) : null;
+        }
+
+        LocalDateTime readTime() {
+            return present() ? LocalDateTime.ofInstant(Instant.ofEpochMilli(readZigZag()), ZoneOffset.UTC) : null;
+        }
+
+        String readString() {
+            if (!present()) {
+                return null;
+            }
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        byte[] readRemaining() {
+            return Arrays.copyOfRange(buf, pos, buf.length);
+        }
+
+        private long readZigZag() {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private long readVarLong() {
+            long v = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+        }
+    }
+}
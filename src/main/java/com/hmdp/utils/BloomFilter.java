@@ -0,0 +1,198 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * id 是否存在的布隆过滤器。
+ * 本地保存一份位图，判断只查本地，不访问 Redis；同时镜像到 Redis bitmap（bloom:{name}:{位数}:{哈希数}）。
+ * 新增的 id 写入 Redis 并通过 bloom:add 频道广播，其它节点收到后补到本地；
+ * 通知丢失时由定时 sync 从 Redis 位图合并，最多在一个同步间隔内把其它节点新增的 id 误判为不存在。
+ * 重建完成之前所有 id 都视为可能存在
+ */
+public class BloomFilter {
+
+    private final String name;
+    private final long bitSize;
+    private final int hashes;
+    private final String redisKey;
+    private final AtomicLongArray words;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private volatile boolean ready;
+
+    /**
+     * @param name 过滤器名称
+     * @param expectedInsertions 预计的 id 数量
+     * @param fpp 期望的误判率
+     */
+    public BloomFilter(String name, long expectedInsertions, double fpp, StringRedisTemplate stringRedisTemplate) {
+        long n = Math.max(expectedInsertions, 1);
+        // m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        // 按 64 位对齐，Redis 位图的偏移量上限为 2^32
+        this.bitSize = Math.min(Math.max(64, (m + 63) / 64 * 64), 1L << 32);
+        this.hashes = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+        this.name = name;
+        this.redisKey = RedisConstants.BLOOM_FILTER_KEY + name + ":" + bitSize + ":" + hashes;
+        this.words = new AtomicLongArray((int) (bitSize / 64));
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * id 是否可能存在
+     * @return false 代表一定不存在
+     */
+    public boolean mightContain(long id) {
+        if (!ready) {
+            return true;
+        }
+        return containsLocal(positions(id));
+    }
+
+    /**
+     * 新增 id：写入本地位图和 Redis，并通知其它节点
+     */
+    public void add(long id) {
+        long[] positions = positions(id);
+        setLocal(positions);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long position : positions) {
+                conn.setBit(redisKey, position, true);
+            }
+            conn.publish(RedisConstants.BLOOM_FILTER_CHANNEL, name + ":" + id);
+            return null;
+        });
+    }
+
+    /**
+     * 其它节点新增的 id，只写入本地位图
+     */
+    public void addLocal(long id) {
+        setLocal(positions(id));
+    }
+
+    /**
+     * 重建时批量写入本地位图（不写 Redis，重建结束后由 publish 整体写入）
+     */
+    public void addAllLocal(Collection<Long> ids) {
+        for (Long id : ids) {
+            setLocal(positions(id));
+        }
+    }
+
+    /**
+     * 重建结束：把本地位图合并到 Redis（BITOP OR，保留重建期间其它节点写入的位），之后开始拦截
+     */
+    public void publish() {
+        byte[] bytes = toRedisBytes();
+        byte[] key = redisKey.getBytes(StandardCharsets.UTF_8);
+        byte[] tmpKey = (redisKey + ":rebuild").getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.set(tmpKey, bytes);
+            connection.bitOp(RedisStringCommands.BitOperation.OR, key, key, tmpKey);
+            connection.del(tmpKey);
+            return null;
+        });
+        // 合并重建期间其它节点写入 Redis 的位
+        sync();
+        ready = true;
+    }
+
+    /**
+     * 把 Redis 位图合并到本地位图（OR），补上丢失通知的 id
+     */
+    public void sync() {
+        byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.get(redisKey.getBytes(StandardCharsets.UTF_8)));
+        if (bytes == null) {
+            return;
+        }
+        int length = (int) Math.min(bytes.length, bitSize / 8);
+        for (int i = 0; i < length; i++) {
+            int value = bytes[i] & 0xFF;
+            if (value == 0) {
+                continue;
+            }
+            // 偏移量 0 是第一个字节的最高位，一个字节的 8 位在同一个 long 中
+            long mask = 0;
+            for (int b = 0; b < 8; b++) {
+                if ((value & (0x80 >>> b)) != 0) {
+                    mask |= 1L << ((i & 7) * 8 + b);
+                }
+            }
+            words.accumulateAndGet(i >>> 3, mask, (x, y) -> x | y);
+        }
+    }
+
+    private long[] positions(long id) {
+        // 两个独立哈希，按 h1 + i * h2 生成 k 个位置
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        long[] positions = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            positions[i] = Long.remainderUnsigned(h1 + i * h2, bitSize);
+        }
+        return positions;
+    }
+
+    private boolean containsLocal(long[] positions) {
+        for (long position : positions) {
+            if ((words.get((int) (position >>> 6)) & (1L << position)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setLocal(long[] positions) {
+        for (long position : positions) {
+            long mask = 1L << position;
+            words.accumulateAndGet((int) (position >>> 6), mask, (a, b) -> a | b);
+        }
+    }
+
+    /**
+     * 转为 Redis 位图的字节序：偏移量 0 是第一个字节的最高位
+     */
+    private byte[] toRedisBytes() {
+        byte[] bytes = new byte[(int) (bitSize / 8)];
+        for (int w = 0; w < words.length(); w++) {
+            long word = words.get(w);
+            if (word == 0) {
+                continue;
+            }
+            for (int b = 0; b < 64; b++) {
+                if ((word & (1L << b)) != 0) {
+                    int offset = w * 64 + b;
+                    bytes[offset >>> 3] |= (byte) (0x80 >>> (offset & 7));
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * SplitMix64 的混淆函数
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
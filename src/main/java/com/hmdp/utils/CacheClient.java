@@ -1,113 +1,343 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.KEY_PREFIX;
 
+/**
+ * 两级缓存：L1 为进程内 Caffeine（按容量和 TTL 淘汰，保存反序列化后的对象），L2 为 Redis。
+ * 删除缓存时通过 Redis 发布订阅通知所有节点清除 L1。
+ * 注意 L1 中的对象会被多个请求共享，调用方不要修改返回的对象
+ */
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 读写缓存值，值为 CacheCodec 编码后的字节
+     */
+    private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+
+    private final CacheCodec cacheCodec;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * L1 中的空值标记，对应 Redis 中缓存的 ""
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * L1 中的 TTL 缓存值：保留物理过期时间和重建耗时，L1 命中时也按 XFetch 判断是否提前刷新。
+     * 与逻辑过期缓存在 L1 中的 RedisData 区分开
+     */
+    private static final class TtlEntry {
+        private final RedisData redisData;
+
+        private TtlEntry(RedisData redisData) {
+            this.redisData = redisData;
+        }
+    }
+
+    private final Cache<String, Object> localCache;
+
+    /**
+     * 热点 key 的本地副本：不受 L1 容量淘汰影响，每秒从 redis 批量刷新一次，收到删除通知时立即移除
+     */
+    private final ConcurrentHashMap<String, Object> hotCache = new ConcurrentHashMap<>();
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private ScheduledExecutorService hotKeyExecutor;
+
+    /**
+     * 正在加载的 key，同一节点内并发未命中的请求共享一次加载
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 未拿到重建锁时等待其它节点重建的最长时间
+     */
+    private final long lockWaitMillis;
+
+    /**
+     * TTL 随机抖动比例：实际 TTL 在 [ttl, ttl * (1 + ttlJitter)) 之间，避免批量写入的 key 同时过期
+     */
+    private final double ttlJitter;
+
+    /**
+     * XFetch 的 beta，越大越早刷新
+     */
+    private final double xfetchBeta;
+
+    /**
+     * 正在提前刷新的 key，同一节点内只提交一次
+     */
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private static final long LOCK_RETRY_MIN_MILLIS = 5;
+    private static final long LOCK_RETRY_MAX_MILLIS = 100;
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    // 各级缓存的命中统计
+    private final LongAdder l1Hits = new LongAdder();
+    private final LongAdder l1Misses = new LongAdder();
+    private final LongAdder l2Hits = new LongAdder();
+    private final LongAdder l2Misses = new LongAdder();
+    private final LongAdder bloomRejected = new LongAdder();
+    private final LongAdder earlyRefreshes = new LongAdder();
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder promotions = new LongAdder();
+    private final LongAdder demotions = new LongAdder();
+
+    /**
+     * 缓存key前缀 -> id 布隆过滤器
+     */
+    private final Map<String, BloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisTemplate<String, byte[]> cacheRedisTemplate,
+                       CacheCodec cacheCodec,
+                       RedisMessageListenerContainer listenerContainer,
+                       HotKeyDetector hotKeyDetector,
+                       @Value("${hmdp.cache.local.maximum-size:10000}") long maximumSize,
+                       @Value("${hmdp.cache.local.ttl-seconds:30}") long ttlSeconds,
+                       @Value("${hmdp.cache.lock-wait-ms:1000}") long lockWaitMillis,
+                       @Value("${hmdp.cache.ttl-jitter:0.1}") double ttlJitter,
+                       @Value("${hmdp.cache.xfetch-beta:1.0}") double xfetchBeta) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRedisTemplate = cacheRedisTemplate;
+        this.cacheCodec = cacheCodec;
+        this.lockWaitMillis = lockWaitMillis;
+        this.ttlJitter = ttlJitter;
+        this.xfetchBeta = xfetchBeta;
+        this.listenerContainer = listenerContainer;
+        this.hotKeyDetector = hotKeyDetector;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        hotKeyExecutor = Executors.newSingleThreadScheduledExecutor();
+        hotKeyExecutor.scheduleAtFixedRate(this::maintainHotKeys, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        hotKeyExecutor.shutdownNow();
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        // 重建耗时未知，不参与提前刷新
+        setRedis(key, value, 0, time, unit);
+        // 其它节点的 L1 可能是旧值
+        publishInvalidation(key);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
         // 设置逻辑过期
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setExpireTime(System.currentTimeMillis() + jitter(unit.toMillis(time)));
         // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        cacheRedisTemplate.opsForValue().set(key, cacheCodec.encodeWithExpire(value, redisData.getExpireTime()));
+        // 写入本地缓存，其它节点的旧值已逻辑过期，读到后会回源 Redis
+        putLocal(key, redisData);
+    }
+
+    /**
+     * 一次 pipeline 批量写入逻辑过期的缓存，用于预热（不写本地缓存）
+     * @param values key -> 缓存对象
+     */
+    public void setWithLogicalExpireBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        long now = System.currentTimeMillis();
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> connection.set(key.getBytes(StandardCharsets.UTF_8),
+                    cacheCodec.encodeWithExpire(value, now + jitter(unit.toMillis(time)))));
+            return null;
+        });
+    }
+
+    /**
+     * 删除缓存（Redis + 所有节点的 L1）
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        publishInvalidation(key);
+    }
+
+    /**
+     * 批量删除缓存：一次 DEL，删除通知在一个 pipeline 中发布。
+     * 任何一步失败都会抛出异常，由调用方（CacheInvalidator）重试
+     */
+    public void delete(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        keys.forEach(this::invalidateLocal);
+        stringRedisTemplate.delete(keys);
+        byte[] channel = CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.publish(channel, key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
     }
 
     public <R,ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        // 0.查询本地缓存，快过期时按概率提前刷新
+        Object local = getLocal(key);
+        if (local != null) {
+            return fromLocal(key, local, type, () -> dbFallback.apply(id), time, unit);
         }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
+        // 0.1.布隆过滤器判断 id 一定不存在，不再查询 redis 和数据库
+        if (rejectedByBloomFilter(keyPrefix, id)) {
             return null;
         }
+        // 1.从redis查询商铺缓存
+        byte[] bytes = getRedis(key);
+        // 2.判断是否存在
+        if (bytes != null) {
+            // 3.存在（或是空值），写入本地缓存并返回，快过期时按概率提前刷新
+            return cacheLocal(key, bytes, type, () -> dbFallback.apply(id), time, unit);
+        }
 
         // 4.不存在，根据id查询数据库
+        long begin = System.currentTimeMillis();
         R r = dbFallback.apply(id);
         // 5.不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
+            putLocal(key, NULL_VALUE);
             // 返回错误信息
             return null;
         }
-        // 6.存在，写入redis
-        this.set(key, r, time, unit);
+        // 6.存在，写入redis，记录重建耗时
+        putLocal(key, new TtlEntry(this.setRedis(key, r, System.currentTimeMillis() - begin, time, unit)));
         return r;
     }
 
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 0.查询本地缓存，未逻辑过期直接返回
+        Object local = getLocal(key);
+        if (local != null) {
+            RedisData localData = (RedisData) local;
+            if (localData.getExpireTime() > System.currentTimeMillis()) {
+                return type.cast(localData.getData());
+            }
+            // 已过期，回源 Redis（可能已被其它节点重建）
+            invalidateLocal(key);
+        }
+        // 0.1.布隆过滤器判断 id 一定不存在，不再查询 redis 和数据库
+        if (rejectedByBloomFilter(keyPrefix, id)) {
+            return null;
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getRedis(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
             // 3.存在，直接返回
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        // 4.命中，反序列化为对象，过期时间在头部
+        RedisData redisData = cacheCodec.decodeWithExpire(bytes, type);
+        R r = type.cast(redisData.getData());
         // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回店铺信息
+        if(redisData.getExpireTime() > System.currentTimeMillis()) {
+            // 5.1.未过期，写入本地缓存，直接返回店铺信息
+            putLocal(key, redisData);
             return r;
         }
         // 5.2.已过期，需要缓存重建
         // 6.缓存重建
         // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
+        String lockKey = KEY_PREFIX + key;
+        String token = tryLock(lockKey);
         // 6.2.判断是否获取锁成功
-        if (isLock){
+        if (token != null){
             // 6.3.成功，开启独立线程，实现缓存重建
             CACHE_REBUILD_EXECUTOR.submit(() -> {
                 try {
                     // 查询数据库
                     R newR = dbFallback.apply(id);
+                    if (newR == null) {
+                        // 数据已被删除，删除缓存，之后的查询按不存在返回
+                        this.delete(key);
+                        return;
+                    }
                     // 重建缓存
                     this.setWithLogicalExpire(key, newR, time, unit);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }finally {
                     // 释放锁
-                    unlock(lockKey);
+                    unlock(lockKey, token);
                 }
             });
         }
@@ -118,58 +348,591 @@ public class CacheClient {
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+        // 0.查询本地缓存，快过期时按概率提前刷新
+        Object local = getLocal(key);
+        if (local != null) {
+            return fromLocal(key, local, type, () -> dbFallback.apply(id), time, unit);
         }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
+        // 0.1.布隆过滤器判断 id 一定不存在，不再查询 redis 和数据库
+        if (rejectedByBloomFilter(keyPrefix, id)) {
             return null;
         }
+        // 1.从redis查询商铺缓存
+        byte[] bytes = getRedis(key);
+        // 2.判断是否存在
+        if (bytes != null) {
+            // 3.存在（或是空值），写入本地缓存并返回，快过期时按概率提前刷新
+            return cacheLocal(key, bytes, type, () -> dbFallback.apply(id), time, unit);
+        }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+        // 4.实现缓存重建，同一节点内只有一个线程去加载，其它线程等待它的结果
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> loading = inFlight.putIfAbsent(key, future);
+        if (loading != null) {
+            // 4.1.已有线程在加载，等待结果
+            Object value = awaitLoading(loading, () -> dbFallback.apply(id));
+            return value == NULL_VALUE ? null : type.cast(value);
+        }
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+            // 4.2.由当前线程加载
+            R r = loadWithLock(key, id, type, dbFallback, time, unit);
+            future.complete(r == null ? NULL_VALUE : r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * 批量查询：本地缓存 -> 一次 MGET -> 一次批量查询数据库补齐未命中的 id -> 一次 pipeline 回写 redis。
+     * 本地缓存和 redis 中快过期的 id 按概率挑出来在后台批量刷新；
+     * 未命中的 id 同一节点内只有一个请求在加载，其它请求等待它的结果
+     * @param keyPrefix 缓存key前缀
+     * @param ids 要查询的 id，结果按该顺序返回
+     * @param type 缓存对象类型
+     * @param batchDbFallback 根据一批 id 查询数据库，返回 id -> 对象
+     * @return 存在的对象，按 ids 的顺序排列，不存在的 id 被跳过
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, List<ID> ids, Class<R> type,
+                                      Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit unit) {
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        List<ID> refreshIds = new ArrayList<>();
+        // 1.查询本地缓存，布隆过滤器判断不存在的 id 直接跳过
+        List<ID> remoteIds = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            String key = keyPrefix + id;
+            Object local = getLocal(key);
+            if (local == null) {
+                if (!rejectedByBloomFilter(keyPrefix, id)) {
+                    remoteIds.add(id);
+                }
+                continue;
+            }
+            if (local instanceof TtlEntry) {
+                RedisData redisData = ((TtlEntry) local).redisData;
+                found.put(id, type.cast(redisData.getData()));
+                if (shouldRefreshEarly(redisData) && refreshing.add(key)) {
+                    refreshIds.add(id);
+                }
+            }
+        }
+        // 2.一次 MGET 查询 redis
+        List<ID> missIds = new ArrayList<>(remoteIds.size());
+        if (!remoteIds.isEmpty()) {
+            List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < remoteIds.size(); i++) {
+                byte[] bytes = values == null ? null : values.get(i);
+                (bytes == null ? l2Misses : l2Hits).increment();
+                if (bytes == null) {
+                    missIds.add(remoteIds.get(i));
+                    continue;
+                }
+                RedisData redisData = decodeLocal(keys.get(i), bytes, type);
+                if (redisData != null) {
+                    found.put(remoteIds.get(i), type.cast(redisData.getData()));
+                    if (shouldRefreshEarly(redisData) && refreshing.add(keys.get(i))) {
+                        refreshIds.add(remoteIds.get(i));
+                    }
+                }
+            }
+        }
+        // 3.未命中的 id：其它请求正在加载的等待结果，其余由当前请求一次批量查询数据库，pipeline 回写 redis
+        if (!missIds.isEmpty()) {
+            loadBatch(keyPrefix, missIds, type, batchDbFallback, time, unit).forEach((id, value) -> {
+                if (value != NULL_VALUE) {
+                    found.put(id, type.cast(value));
+                }
+            });
+        }
+        // 3.1.需要提前刷新的 id 在后台一次批量重建
+        if (!refreshIds.isEmpty()) {
+            earlyRefreshes.add(refreshIds.size());
+            CACHE_REBUILD_EXECUTOR.submit(() -> {
+                try {
+                    long begin = System.currentTimeMillis();
+                    Map<ID, R> loaded = batchDbFallback.apply(refreshIds);
+                    setRedisBatch(keyPrefix, refreshIds, loaded, System.currentTimeMillis() - begin, time, unit);
+                    refreshIds.forEach(id -> publishInvalidation(keyPrefix + id));
+                } catch (Exception e) {
+                    log.error("批量提前刷新缓存失败，keyPrefix={}", keyPrefix, e);
+                } finally {
+                    refreshIds.forEach(id -> refreshing.remove(keyPrefix + id));
+                }
+            });
+        }
+        // 4.按调用方的顺序返回
+        List<R> result = new ArrayList<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 加载一批未命中的 id：在 inFlight 中登记成功的由当前线程一次批量查询数据库并回写 redis，
+     * 已有其它线程（queryBatch 或 queryWithMutex）在加载的等待其结果
+     * @return id -> 对象，不存在时为 NULL_VALUE
+     */
+    private <R, ID> Map<ID, Object> loadBatch(String keyPrefix, List<ID> missIds, Class<R> type,
+                                              Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit unit) {
+        Map<ID, Object> result = new HashMap<>(missIds.size() * 2);
+        Map<ID, CompletableFuture<Object>> owned = new LinkedHashMap<>();
+        Map<ID, CompletableFuture<Object>> waiting = new LinkedHashMap<>();
+        for (ID id : missIds) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            CompletableFuture<Object> loading = inFlight.putIfAbsent(keyPrefix + id, future);
+            if (loading == null) {
+                owned.put(id, future);
+            } else {
+                waiting.put(id, loading);
+            }
+        }
+        // 1.由当前线程加载
+        if (!owned.isEmpty()) {
+            List<ID> ownedIds = new ArrayList<>(owned.keySet());
+            try {
+                long begin = System.currentTimeMillis();
+                Map<ID, R> loaded = batchDbFallback.apply(ownedIds);
+                Map<ID, RedisData> written = setRedisBatch(keyPrefix, ownedIds, loaded, System.currentTimeMillis() - begin, time, unit);
+                for (ID id : ownedIds) {
+                    RedisData redisData = written.get(id);
+                    putLocal(keyPrefix + id, redisData == null ? NULL_VALUE : new TtlEntry(redisData));
+                    Object value = redisData == null ? NULL_VALUE : redisData.getData();
+                    result.put(id, value);
+                    owned.get(id).complete(value);
+                }
+            } catch (RuntimeException e) {
+                owned.values().forEach(f -> f.completeExceptionally(e));
+                throw e;
+            } finally {
+                owned.forEach((id, f) -> inFlight.remove(keyPrefix + id, f));
+            }
+        }
+        // 2.等待其它线程的加载结果，超时或失败时单独查询数据库
+        waiting.forEach((id, loading) -> result.put(id, awaitLoading(loading,
+                () -> batchDbFallback.apply(Collections.singletonList(id)).get(id))));
+        return result;
+    }
+
+    /**
+     * 跨节点互斥重建：拿到锁的节点查询数据库并写缓存，
+     * 没拿到锁的节点在限定时间内轮询 redis 等待重建结果，超时后直接查询数据库（不写缓存）
+     */
+    private <R, ID> R loadWithLock(String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String lockKey = KEY_PREFIX + key;
+        long deadline = System.currentTimeMillis() + lockWaitMillis;
+        long backoff = LOCK_RETRY_MIN_MILLIS;
+        while (true) {
+            // 1.获取互斥锁
+            String token = tryLock(lockKey);
+            if (token != null) {
+                try {
+                    // 2.获取锁成功，再次检查缓存，可能已被其它节点重建
+                    byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+                    if (bytes != null) {
+                        return cacheLocal(key, bytes, type, () -> dbFallback.apply(id), time, unit);
+                    }
+                    // 3.根据id查询数据库
+                    long begin = System.currentTimeMillis();
+                    R r = dbFallback.apply(id);
+                    if (r == null) {
+                        // 将空值写入redis
+                        setNull(key);
+                        putLocal(key, NULL_VALUE);
+                        return null;
+                    }
+                    // 4.存在，写入redis，记录重建耗时
+                    putLocal(key, new TtlEntry(this.setRedis(key, r, System.currentTimeMillis() - begin, time, unit)));
+                    return r;
+                } finally {
+                    // 5.释放锁，只会删除自己持有的锁
+                    unlock(lockKey, token);
+                }
+            }
+            // 6.获取锁失败，等待一段时间后检查是否已重建
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                log.warn("等待缓存重建超时，直接查询数据库，key={}", key);
+                return dbFallback.apply(id);
             }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            ThreadUtil.sleep(Math.min(backoff, remaining));
+            backoff = Math.min(backoff * 2, LOCK_RETRY_MAX_MILLIS);
+            byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+            if (bytes != null) {
+                return cacheLocal(key, bytes, type, () -> dbFallback.apply(id), time, unit);
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
+        }
+    }
+
+    /**
+     * 等待同一节点内其它线程的加载结果，超时或加载失败时自己查询数据库
+     */
+    private Object awaitLoading(CompletableFuture<Object> loading, Supplier<Object> fallback) {
+        try {
+            return loading.get(lockWaitMillis + LOCK_RETRY_MAX_MILLIS, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
+        } catch (ExecutionException | TimeoutException e) {
+            Object value = fallback.get();
+            return value == null ? NULL_VALUE : value;
         }
-        // 8.返回
-        return r;
     }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    /**
+     * 解码 redis 中的 TTL 缓存值并写入本地缓存，快过期时按 XFetch 的概率在后台提前刷新
+     * @param loader 提前刷新时查询数据库
+     */
+    private <R> R cacheLocal(String key, byte[] bytes, Class<R> type, Supplier<R> loader, Long time, TimeUnit unit) {
+        RedisData redisData = decodeLocal(key, bytes, type);
+        if (redisData == null) {
+            return null;
+        }
+        if (shouldRefreshEarly(redisData)) {
+            refreshAsync(key, loader, time, unit);
+        }
+        return type.cast(redisData.getData());
     }
 
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 解码并写入本地缓存
+     * @return 空值返回 null
+     */
+    private RedisData decodeLocal(String key, byte[] bytes, Class<?> type) {
+        if (bytes.length == 0) {
+            putLocal(key, NULL_VALUE);
+            return null;
+        }
+        RedisData redisData = cacheCodec.decodeWithRefresh(bytes, type);
+        putLocal(key, new TtlEntry(redisData));
+        return redisData;
+    }
+
+    /**
+     * 取出本地缓存中的 TTL 缓存值，快过期时与 redis 命中一样按 XFetch 的概率在后台提前刷新
+     * @param loader 提前刷新时查询数据库
+     */
+    private <R> R fromLocal(String key, Object local, Class<R> type, Supplier<R> loader, Long time, TimeUnit unit) {
+        if (local == NULL_VALUE) {
+            return null;
+        }
+        RedisData redisData = ((TtlEntry) local).redisData;
+        if (shouldRefreshEarly(redisData)) {
+            refreshAsync(key, loader, time, unit);
+        }
+        return type.cast(redisData.getData());
+    }
+
+    /**
+     * XFetch：now - delta * beta * ln(rand) >= expireTime 时提前刷新。
+     * 离过期越近、重建越慢，刷新的概率越高，过期前通常只有一个请求触发刷新；
+     * 重建耗时未知（delta = 0）时只在到期后刷新，预热写入的逻辑过期值就是这样过期后被替换的
+     */
+    private boolean shouldRefreshEarly(RedisData redisData) {
+        if (redisData.getExpireTime() <= 0) {
+            // 旧数据没有过期时间，等待自然过期
+            return false;
+        }
+        double gap = -redisData.getDelta() * xfetchBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= redisData.getExpireTime();
+    }
+
+    /**
+     * 后台重建缓存，同一节点内同一个 key 同时只有一个刷新任务；
+     * 多个节点同时选中同一个 key 的概率很低，重复刷新只是多查一次数据库，因此不加分布式锁
+     */
+    private <R> void refreshAsync(String key, Supplier<R> loader, Long time, TimeUnit unit) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        earlyRefreshes.increment();
+        CACHE_REBUILD_EXECUTOR.submit(() -> {
+            try {
+                long begin = System.currentTimeMillis();
+                R r = loader.get();
+                if (r == null) {
+                    setNull(key);
+                } else {
+                    setRedis(key, r, System.currentTimeMillis() - begin, time, unit);
+                }
+                // 其它节点的 L1 是旧值
+                publishInvalidation(key);
+            } catch (Exception e) {
+                log.error("提前刷新缓存失败，key={}", key, e);
+            } finally {
+                refreshing.remove(key);
+            }
+        });
+    }
+
+    /**
+     * 各级缓存的命中统计
+     * @return l1 / l2 的命中数、未命中数、命中率，L1 当前条目数，被布隆过滤器拦截的次数，提前刷新的次数，以及热点 key 副本的条目数、命中数、提升和降级次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> l1 = tierStats(l1Hits.sum(), l1Misses.sum());
+        l1.put("size", localCache.estimatedSize());
+        Map<String, Object> stats = new LinkedHashMap<>(4);
+        stats.put("l1", l1);
+        stats.put("l2", tierStats(l2Hits.sum(), l2Misses.sum()));
+        stats.put("bloomRejected", bloomRejected.sum());
+        stats.put("earlyRefreshes", earlyRefreshes.sum());
+        Map<String, Object> hot = new LinkedHashMap<>(8);
+        hot.put("size", hotCache.size());
+        hot.put("hits", hotHits.sum());
+        hot.put("promotions", promotions.sum());
+        hot.put("demotions", demotions.sum());
+        stats.put("hot", hot);
+        return stats;
+    }
+
+    /**
+     * 当前的热点 key
+     * @return 按估算 QPS 从高到低排列的 key 和 QPS
+     */
+    public List<Map<String, Object>> hotKeys() {
+        List<Map<String, Object>> hotKeys = new ArrayList<>(hotCache.size());
+        for (String key : hotCache.keySet()) {
+            Map<String, Object> hotKey = new LinkedHashMap<>(4);
+            hotKey.put("key", key);
+            hotKey.put("qps", hotKeyDetector.estimateQps(key));
+            hotKeys.add(hotKey);
+        }
+        hotKeys.sort(Comparator.comparingDouble((Map<String, Object> m) -> (Double) m.get("qps")).reversed());
+        return hotKeys;
+    }
+
+    /**
+     * 为某类缓存注册 id 布隆过滤器，查询该前缀的缓存时先判断 id 是否存在
+     * @param keyPrefix 缓存key前缀
+     * @param bloomFilter 该类实体的 id 布隆过滤器
+     */
+    public void registerBloomFilter(String keyPrefix, BloomFilter bloomFilter) {
+        bloomFilters.put(keyPrefix, bloomFilter);
+    }
+
+    private <ID> boolean rejectedByBloomFilter(String keyPrefix, ID id) {
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter == null || !(id instanceof Number)) {
+            return false;
+        }
+        if (bloomFilter.mightContain(((Number) id).longValue())) {
+            return false;
+        }
+        bloomRejected.increment();
+        return true;
+    }
+
+    /**
+     * 收到其它节点（包括自己）发布的删除通知，清除 L1
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 写入 TTL 缓存，值中带上物理过期时间和重建耗时，供读取时判断是否提前刷新
+     * @param delta 重建耗时（毫秒），0 表示不参与提前刷新
+     * @return 写入的值和刷新信息，用于写入本地缓存
+     */
+    private RedisData setRedis(String key, Object value, long delta, Long time, TimeUnit unit) {
+        long ttlMillis = jitter(unit.toMillis(time));
+        RedisData redisData = refreshData(value, System.currentTimeMillis() + ttlMillis, delta);
+        byte[] bytes = cacheCodec.encodeWithRefresh(value, redisData.getExpireTime(), delta);
+        cacheRedisTemplate.opsForValue().set(key, bytes, ttlMillis, TimeUnit.MILLISECONDS);
+        return redisData;
+    }
+
+    /**
+     * 一次 pipeline 写入一批 TTL 缓存，loaded 中没有的 id 写入空值
+     * @return id -> 写入的值和刷新信息，空值不在其中
+     */
+    private <R, ID> Map<ID, RedisData> setRedisBatch(String keyPrefix, List<ID> ids, Map<ID, R> loaded, long delta, Long time, TimeUnit unit) {
+        long now = System.currentTimeMillis();
+        Map<ID, RedisData> written = new HashMap<>(ids.size() * 2);
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : ids) {
+                byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                R r = loaded.get(id);
+                if (r == null) {
+                    long nullTtlMillis = jitter(TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+                    connection.set(rawKey, EMPTY, Expiration.milliseconds(nullTtlMillis), RedisStringCommands.SetOption.upsert());
+                } else {
+                    long ttlMillis = jitter(unit.toMillis(time));
+                    byte[] bytes = cacheCodec.encodeWithRefresh(r, now + ttlMillis, delta);
+                    connection.set(rawKey, bytes, Expiration.milliseconds(ttlMillis), RedisStringCommands.SetOption.upsert());
+                    written.put(id, refreshData(r, now + ttlMillis, delta));
+                }
+            }
+            return null;
+        });
+        return written;
+    }
+
+    private static RedisData refreshData(Object value, long expireTime, long delta) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        redisData.setDelta(delta);
+        return redisData;
+    }
+
+    /**
+     * 缓存空值（空字节数组，即原来的 ""）
+     */
+    private void setNull(String key) {
+        cacheRedisTemplate.opsForValue().set(key, EMPTY, jitter(TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL)), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 给 TTL 加上 [0, ttlJitter) 比例的随机时长
+     */
+    private long jitter(long ttlMillis) {
+        return ttlMillis + (long) (ttlMillis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private void publishInvalidation(String key) {
+        invalidateLocal(key);
+        try {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        } catch (Exception e) {
+            // 通知丢失时其它节点的 L1 最多在 TTL 后过期
+            log.error("发布缓存失效通知失败，key={}", key, e);
+        }
+    }
+
+    /**
+     * 查询本地缓存（热点副本 -> L1），同时记录访问次数，L1 命中的热点 key 提升到热点副本
+     */
+    private Object getLocal(String key) {
+        boolean hot = hotKeyDetector.record(key);
+        Object value = hotCache.get(key);
+        if (value != null) {
+            hotHits.increment();
+            l1Hits.increment();
+            return value;
+        }
+        value = localCache.getIfPresent(key);
+        (value == null ? l1Misses : l1Hits).increment();
+        if (hot && value != null) {
+            promote(key, value);
+        }
+        return value;
+    }
+
+    private void putLocal(String key, Object value) {
+        localCache.put(key, value);
+        hotCache.computeIfPresent(key, (k, old) -> value);
+    }
+
+    private void invalidateLocal(String key) {
+        localCache.invalidate(key);
+        hotCache.remove(key);
+    }
+
+    private void promote(String key, Object value) {
+        if (hotCache.size() < hotKeyDetector.getMaxHotKeys() && hotCache.putIfAbsent(key, value) == null) {
+            promotions.increment();
+            log.info("热点 key 提升到本地副本，key={}，qps={}", key, hotKeyDetector.estimateQps(key));
+        }
+    }
+
+    /**
+     * 每秒执行：统计窗口前进一格，冷却的 key 降级，其余热点 key 一次 MGET 从 redis 刷新本地副本
+     */
+    private void maintainHotKeys() {
+        try {
+            hotKeyDetector.rotate();
+            hotCache.keySet().removeIf(key -> {
+                boolean cool = hotKeyDetector.isCool(key);
+                if (cool) {
+                    demotions.increment();
+                    log.info("热点 key 已冷却，降级，key={}", key);
+                }
+                return cool;
+            });
+            if (hotCache.isEmpty()) {
+                return;
+            }
+            List<String> keys = new ArrayList<>(hotCache.keySet());
+            List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                Object old = hotCache.get(key);
+                if (old == null) {
+                    continue;
+                }
+                byte[] bytes = values == null ? null : values.get(i);
+                Object fresh = bytes == null ? null : decodeLike(old, bytes);
+                if (fresh == null) {
+                    // redis 中已过期或无法解码，移出副本，下次读取按正常流程加载
+                    hotCache.remove(key, old);
+                } else {
+                    // 期间被删除或更新过的不覆盖
+                    hotCache.replace(key, old, fresh);
+                }
+            }
+        } catch (Exception e) {
+            log.error("刷新热点 key 失败", e);
+        }
+    }
+
+    /**
+     * 按副本中旧值的类型解码 redis 中的新值
+     */
+    private Object decodeLike(Object old, byte[] bytes) {
+        if (bytes.length == 0) {
+            return NULL_VALUE;
+        }
+        if (old == NULL_VALUE) {
+            // 空值的类型未知
+            return null;
+        }
+        if (old instanceof RedisData) {
+            Object data = ((RedisData) old).getData();
+            return data == null ? null : cacheCodec.decodeWithExpire(bytes, data.getClass());
+        }
+        Object data = ((TtlEntry) old).redisData.getData();
+        return new TtlEntry(cacheCodec.decodeWithRefresh(bytes, data.getClass()));
+    }
+
+    private byte[] getRedis(String key) {
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(key);
+        (bytes == null ? l2Misses : l2Hits).increment();
+        return bytes;
+    }
+
+    private static Map<String, Object> tierStats(long hits, long misses) {
+        Map<String, Object> stats = new LinkedHashMap<>(8);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        long total = hits + misses;
+        stats.put("hitRate", total == 0 ? 0D : (double) hits / total);
+        return stats;
+    }
+
+    /**
+     * 获取互斥锁，重建锁的 key 为 lock: + 缓存key，不同前缀的缓存不会共用同一把锁
+     * @return 锁的持有者标识，获取失败返回 null
+     */
+    private String tryLock(String key) {
+        String token = UUID.randomUUID().toString(true);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, token, 10, TimeUnit.SECONDS);
+        return BooleanUtil.isTrue(flag) ? token : null;
+    }
+
+    /**
+     * 释放互斥锁，锁已过期被其它线程持有时不会误删
+     */
+    private void unlock(String key, String token) {
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), token);
     }
 }
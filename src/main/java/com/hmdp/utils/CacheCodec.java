@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码，通过 hmdp.cache.codec 选择实现：
+ * json - Hutool JSON 字符串；binary - 紧凑二进制格式
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码缓存值
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码缓存值
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码带逻辑过期时间的缓存值
+     * @param expireTime 逻辑过期时间（毫秒时间戳）
+     */
+    byte[] encodeWithExpire(Object value, long expireTime);
+
+    /**
+     * 解码带逻辑过期时间的缓存值
+     * @return data 为 type 类型对象的 RedisData
+     */
+    RedisData decodeWithExpire(byte[] bytes, Class<?> type);
+
+    /**
+     * 编码带刷新信息的 TTL 缓存值
+     * @param expireTime 物理过期时间（毫秒时间戳）
+     * @param delta 重建耗时（毫秒）
+     */
+    byte[] encodeWithRefresh(Object value, long expireTime, long delta);
+
+    /**
+     * 解码 TTL 缓存值，兼容没有刷新信息的旧数据（此时 expireTime、delta 为 0）
+     * @return data 为 type 类型对象的 RedisData
+     */
+    RedisData decodeWithRefresh(byte[] bytes, Class<?> type);
+}
@@ -0,0 +1,176 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存删除：事务提交后删除 + 延时双删 + 失败重试。
+ * <ol>
+ *     <li>当前线程有事务时在提交之后才删除，避免并发读请求在提交前把旧数据写回缓存；没有事务时立即删除</li>
+ *     <li>删除后延时 delay-ms 再删除一次，清掉删除与提交之间被读请求写回的旧值</li>
+ *     <li>删除失败的 key 进入本地重试队列，按指数退避重试，到期的 key 合并为一次批量删除</li>
+ * </ol>
+ * 重试队列只在内存中（删除失败通常是 redis 不可用），进程退出时未完成的 key 由缓存 TTL 兜底
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 第二次删除的延时
+     */
+    @Value("${hmdp.cache.invalidation.delay-ms:500}")
+    private long delayMillis;
+
+    @Value("${hmdp.cache.invalidation.retry-initial-ms:100}")
+    private long retryInitialMillis;
+
+    @Value("${hmdp.cache.invalidation.retry-max-ms:30000}")
+    private long retryMaxMillis;
+
+    /**
+     * 超过该次数后放弃并记录错误日志
+     */
+    @Value("${hmdp.cache.invalidation.max-attempts:10}")
+    private int maxAttempts;
+
+    /**
+     * 等待重试的 key -> 重试状态
+     */
+    private final ConcurrentHashMap<String, Retry> retries = new ConcurrentHashMap<>();
+
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    private void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::retryDue, retryInitialMillis, retryInitialMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public void invalidate(String key) {
+        invalidate(Collections.singletonList(key));
+    }
+
+    /**
+     * 删除缓存，当前线程有事务时在事务提交后执行
+     */
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<String> copy = new ArrayList<>(keys);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    invalidateNow(copy);
+                }
+            });
+        } else {
+            invalidateNow(copy);
+        }
+    }
+
+    /**
+     * 重试状态
+     * @return 等待重试的 key 数、重试次数、放弃的 key 数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(4);
+        stats.put("pending", retries.size());
+        stats.put("retried", retried.sum());
+        stats.put("dropped", dropped.sum());
+        return stats;
+    }
+
+    private void invalidateNow(List<String> keys) {
+        deleteOrRetry(keys);
+        scheduler.schedule(() -> deleteOrRetry(keys), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void deleteOrRetry(List<String> keys) {
+        try {
+            cacheClient.delete(keys);
+        } catch (Exception e) {
+            log.warn("删除缓存失败，加入重试队列，keys={}", keys, e);
+            long dueAt = System.currentTimeMillis() + retryInitialMillis;
+            for (String key : keys) {
+                // 已在队列中的 key 保留原来的重试进度
+                retries.putIfAbsent(key, new Retry(1, dueAt));
+            }
+        }
+    }
+
+    /**
+     * 到期的 key 合并为一次批量删除，失败的按 retry-initial-ms * 2^(n-1) 退避
+     */
+    private void retryDue() {
+        long now = System.currentTimeMillis();
+        Map<String, Retry> due = new LinkedHashMap<>();
+        retries.forEach((key, retry) -> {
+            if (retry.dueAt <= now) {
+                due.put(key, retry);
+            }
+        });
+        if (due.isEmpty()) {
+            return;
+        }
+        retried.add(due.size());
+        try {
+            cacheClient.delete(due.keySet());
+            due.forEach(retries::remove);
+        } catch (Exception e) {
+            log.warn("重试删除缓存失败，keys={}", due.keySet(), e);
+            due.forEach((key, retry) -> {
+                int attempts = retry.attempts + 1;
+                if (attempts > maxAttempts) {
+                    retries.remove(key, retry);
+                    dropped.increment();
+                    log.error("删除缓存重试 {} 次仍失败，放弃，key={}", maxAttempts, key);
+                    return;
+                }
+                long backoff = Math.min(retryMaxMillis, retryInitialMillis << Math.min(attempts - 1, 20));
+                retries.replace(key, retry, new Retry(attempts, now + backoff));
+            });
+        }
+    }
+
+    private static class Retry {
+        private final int attempts;
+        private final long dueAt;
+
+        Retry(int attempts, long dueAt) {
+            this.attempts = attempts;
+            this.dueAt = dueAt;
+        }
+    }
+}
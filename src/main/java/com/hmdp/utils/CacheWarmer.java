@@ -0,0 +1,292 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_GEO_RECONCILE_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 启动预热：商铺类型缓存、按类型重建 shop:geo:{typeId} 和本地坐标索引、预加载每个类型销量最高的 N 个商铺（逻辑过期），
+ * 以及商铺名称搜索的倒排索引。各类型和搜索索引并行处理。
+ * redis 中的 GEO 只由拿到对账锁的一个实例重建（与 ShopGeoMaintainer 的对账互斥），其它实例只构建本地索引。ApplicationRunner 执行完之后 Spring Boot 才会把就绪状态切换为 ACCEPTING_TRAFFIC，
+ * 因此预热结束前实例不会被判定为就绪
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.warm-up.enabled", havingValue = "true", matchIfMissing = true)
+public class CacheWarmer implements ApplicationRunner {
+
+    /**
+     * 每条 GEOADD 的最大成员数，一页拆成多条在同一个 pipeline 中发送，避免单条命令过大
+     */
+    private static final int GEOADD_BATCH = 200;
+
+    /**
+     * 临时 key 的过期时间，实例在重建中途退出时自动清除
+     */
+    private static final long TMP_KEY_TTL_MINUTES = 10;
+
+    /**
+     * 重建后补写期间变更的商铺时，update_time 向前多取的时长，容忍应用与数据库的时钟偏差
+     */
+    private static final long CHANGE_MARGIN_SECONDS = 60;
+
+    /**
+     * 本实例的临时 key 后缀，多个实例同时启动时互不覆盖
+     */
+    private final String instanceId = UUID.randomUUID().toString(true);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 按主键分页读取商铺时每页的条数
+     */
+    @Value("${hmdp.warm-up.page-size:1000}")
+    private int pageSize;
+
+    /**
+     * 每个类型预加载的商铺数
+     */
+    @Value("${hmdp.warm-up.top-n:100}")
+    private int topN;
+
+    /**
+     * 同时预热的类型数
+     */
+    @Value("${hmdp.warm-up.parallelism:4}")
+    private int parallelism;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long begin = System.currentTimeMillis();
+        // 1.商铺类型，经过 @HmdpCached 写入 cache:shopType
+        List<ShopType> types = shopTypeService.queryTypeList();
+        // 2.各类型并行重建 GEO 并预加载商铺，拿不到对账锁时说明其它实例正在重建或对账，只构建本地索引
+        RLock lock = redissonClient.getLock(LOCK_GEO_RECONCILE_KEY);
+        boolean rebuildRedis = tryLock(lock);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        try {
+            Future<Integer> searchDocs = executor.submit(this::buildSearchIndex);
+            Map<Long, Future<int[]>> futures = new LinkedHashMap<>(types.size() * 2);
+            for (ShopType type : types) {
+                futures.put(type.getId(), executor.submit(() -> warmUpType(type.getId(), rebuildRedis)));
+            }
+            long geoMembers = 0;
+            long cachedShops = 0;
+            int failed = 0;
+            for (Map.Entry<Long, Future<int[]>> entry : futures.entrySet()) {
+                try {
+                    int[] counts = entry.getValue().get();
+                    geoMembers += counts[0];
+                    cachedShops += counts[1];
+                } catch (ExecutionException e) {
+                    // 单个类型失败不影响启动，该类型按正常流程在访问时加载
+                    failed++;
+                    log.error("类型 {} 预热失败", entry.getKey(), e.getCause());
+                }
+            }
+            int indexedShops = 0;
+            try {
+                indexedShops = searchDocs.get();
+            } catch (ExecutionException e) {
+                // 搜索索引构建失败时按名称查询回退到数据库
+                log.error("商铺搜索索引构建失败", e.getCause());
+            }
+            log.info("缓存预热完成，商铺类型：{}，GEO 商铺数：{}，预加载商铺缓存：{}，搜索索引商铺数：{}，失败类型数：{}，耗时 {} ms",
+                    types.size(), geoMembers, cachedShops, indexedShops, failed, System.currentTimeMillis() - begin);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("缓存预热被中断");
+        } finally {
+            executor.shutdownNow();
+            if (rebuildRedis) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static boolean tryLock(RLock lock) {
+        try {
+            return lock.tryLock();
+        } catch (Exception e) {
+            log.error("获取商铺 GEO 对账锁失败，只构建本地索引", e);
+            return false;
+        }
+    }
+
+    /**
+     * 预热一个类型
+     * @param rebuildRedis 是否重建 redis 中的 GEO
+     * @return [GEO 中的商铺数, 预加载的商铺缓存数]
+     */
+    private int[] warmUpType(Long typeId, boolean rebuildRedis) {
+        long begin = System.currentTimeMillis();
+        LocalDateTime buildTime = LocalDateTime.now().minusSeconds(CHANGE_MARGIN_SECONDS);
+        // 1.按主键分页（WHERE type_id = ? AND id > ? ORDER BY id LIMIT n）读取坐标，写入本实例的临时 key 和新的本地索引
+        String key = SHOP_GEO_KEY + typeId;
+        String tmpKey = key + ":warmup:" + instanceId;
+        if (rebuildRedis) {
+            stringRedisTemplate.delete(tmpKey);
+        }
+        shopGeoIndex.beginBuild(typeId);
+        long lastId = 0;
+        int geoMembers = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "x", "y")
+                    .eq("type_id", typeId).gt("id", lastId)
+                    .orderByAsc("id").last("LIMIT " + pageSize));
+            if (shops.isEmpty()) {
+                break;
+            }
+            if (rebuildRedis) {
+                geoAdd(tmpKey, shops);
+                if (geoMembers == 0) {
+                    stringRedisTemplate.expire(tmpKey, TMP_KEY_TTL_MINUTES, TimeUnit.MINUTES);
+                }
+            }
+            shopGeoIndex.add(typeId, shops);
+            geoMembers += shops.size();
+            lastId = shops.get(shops.size() - 1).getId();
+            if (shops.size() < pageSize) {
+                break;
+            }
+        }
+        // 2.整体替换原来的 key，读请求不会看到重建了一半的集合，已删除的商铺也随之清除
+        if (rebuildRedis) {
+            if (geoMembers > 0) {
+                // RENAME 会带上临时 key 的过期时间，先去掉
+                stringRedisTemplate.persist(tmpKey);
+                stringRedisTemplate.rename(tmpKey, key);
+            } else {
+                stringRedisTemplate.delete(key);
+            }
+            // 2.1.重建期间 ShopGeoMaintainer 写入原 key 的变更被覆盖，按 update_time 补写；
+            // 期间移出该类型的商铺由对账删除
+            List<Shop> changed = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "x", "y")
+                    .eq("type_id", typeId).ge("update_time", buildTime)
+                    .isNotNull("x").isNotNull("y"));
+            if (!changed.isEmpty()) {
+                geoAdd(key, changed);
+            }
+        }
+        shopGeoIndex.publish(typeId);
+        // 3.预加载销量最高的 N 个商铺，逻辑过期，到期后第一次读取时在后台重建
+        List<Shop> top = shopMapper.selectList(new QueryWrapper<Shop>()
+                .eq("type_id", typeId).orderByDesc("sold").last("LIMIT " + topN));
+        Map<String, Shop> values = new HashMap<>(top.size() * 2);
+        for (Shop shop : top) {
+            values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+        }
+        if (!values.isEmpty()) {
+            cacheClient.setWithLogicalExpireBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+        log.debug("类型 {} 预热完成，GEO 商铺数：{}，预加载商铺缓存：{}，耗时 {} ms",
+                typeId, geoMembers, values.size(), System.currentTimeMillis() - begin);
+        return new int[]{geoMembers, values.size()};
+    }
+
+    /**
+     * 按主键分页读取全部商铺的名称、地址、评分、销量，构建搜索索引
+     * @return 索引的商铺数
+     */
+    private int buildSearchIndex() {
+        shopSearchIndex.beginBuild();
+        long lastId = 0;
+        int count = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "name", "address", "score", "sold")
+                    .gt("id", lastId)
+                    .orderByAsc("id").last("LIMIT " + pageSize));
+            if (shops.isEmpty()) {
+                break;
+            }
+            shopSearchIndex.add(shops);
+            count += shops.size();
+            lastId = shops.get(shops.size() - 1).getId();
+            if (shops.size() < pageSize) {
+                break;
+            }
+        }
+        shopSearchIndex.publish();
+        return count;
+    }
+
+    /**
+     * 一页坐标按 GEOADD_BATCH 拆成多条 GEOADD，在一个 pipeline 中发送
+     */
+    private void geoAdd(String key, List<Shop> shops) {
+        List<Map<String, Point>> batches = new ArrayList<>();
+        Map<String, Point> batch = new HashMap<>(GEOADD_BATCH * 2);
+        for (Shop shop : shops) {
+            batch.put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+            if (batch.size() == GEOADD_BATCH) {
+                batches.add(batch);
+                batch = new HashMap<>(GEOADD_BATCH * 2);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Map<String, Point> members : batches) {
+                conn.geoAdd(key, members);
+            }
+            return null;
+        });
+    }
+}
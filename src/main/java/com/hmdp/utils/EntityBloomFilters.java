@@ -0,0 +1,194 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+
+/**
+ * 商铺、笔记、用户 id 的布隆过滤器，防止随机 id 穿透到 Redis 和数据库。
+ * 启动时在后台按主键分页（WHERE id > ? ORDER BY id LIMIT n）从数据库重建，重建完成前不拦截；
+ * 订阅 bloom:add 频道补上其它节点新增的 id，并定时从 Redis 位图同步
+ */
+@Slf4j
+@Component
+public class EntityBloomFilters {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * 期望的误判率
+     */
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    @Value("${hmdp.bloom.expected-insertions.shop:100000}")
+    private long expectedShops;
+
+    @Value("${hmdp.bloom.expected-insertions.blog:1000000}")
+    private long expectedBlogs;
+
+    @Value("${hmdp.bloom.expected-insertions.user:1000000}")
+    private long expectedUsers;
+
+    /**
+     * 重建时每页读取的 id 数
+     */
+    @Value("${hmdp.bloom.rebuild-page-size:5000}")
+    private int pageSize;
+
+    /**
+     * 从 Redis 位图同步的间隔，补上丢失通知的 id
+     */
+    @Value("${hmdp.bloom.sync-interval-seconds:60}")
+    private long syncIntervalSeconds;
+
+    private BloomFilter shopFilter;
+    private BloomFilter blogFilter;
+    private BloomFilter userFilter;
+
+    private ExecutorService rebuildExecutor;
+
+    private ScheduledExecutorService syncExecutor;
+
+    @PostConstruct
+    private void init() {
+        shopFilter = new BloomFilter("shop", expectedShops, fpp, stringRedisTemplate);
+        blogFilter = new BloomFilter("blog", expectedBlogs, fpp, stringRedisTemplate);
+        userFilter = new BloomFilter("user", expectedUsers, fpp, stringRedisTemplate);
+        cacheClient.registerBloomFilter(CACHE_SHOP_KEY, shopFilter);
+        cacheClient.registerBloomFilter(CACHE_BLOG_KEY, blogFilter);
+        cacheClient.registerBloomFilter(CACHE_USER_KEY, userFilter);
+        // 其它节点新增的 id，消息格式 name:id；重建期间收到的同样写入本地位图
+        listenerContainer.addMessageListener((message, pattern) -> onAdd(
+                new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(BLOOM_FILTER_CHANNEL));
+
+        rebuildExecutor = Executors.newSingleThreadExecutor();
+        rebuildExecutor.submit(() -> rebuild(shopFilter, shopMapper));
+        rebuildExecutor.submit(() -> rebuild(blogFilter, blogMapper));
+        rebuildExecutor.submit(() -> rebuild(userFilter, userMapper));
+
+        syncExecutor = Executors.newSingleThreadScheduledExecutor();
+        syncExecutor.scheduleWithFixedDelay(this::sync, syncIntervalSeconds, syncIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdownNow();
+        syncExecutor.shutdownNow();
+    }
+
+    public BloomFilter shop() {
+        return shopFilter;
+    }
+
+    public BloomFilter blog() {
+        return blogFilter;
+    }
+
+    public BloomFilter user() {
+        return userFilter;
+    }
+
+    private void onAdd(String message) {
+        int index = message.lastIndexOf(':');
+        if (index < 0) {
+            return;
+        }
+        String name = message.substring(0, index);
+        long id = Long.parseLong(message.substring(index + 1));
+        for (BloomFilter filter : new BloomFilter[]{shopFilter, blogFilter, userFilter}) {
+            if (filter.getName().equals(name)) {
+                filter.addLocal(id);
+            }
+        }
+    }
+
+    /**
+     * 从 Redis 位图同步已重建完成的过滤器
+     */
+    private void sync() {
+        for (BloomFilter filter : new BloomFilter[]{shopFilter, blogFilter, userFilter}) {
+            if (!filter.isReady()) {
+                continue;
+            }
+            try {
+                filter.sync();
+            } catch (Exception e) {
+                log.error("布隆过滤器 {} 同步失败", filter.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * 按主键分页流式读取全部 id 写入本地位图，完成后合并到 Redis
+     */
+    private <T> void rebuild(BloomFilter filter, BaseMapper<T> mapper) {
+        long begin = System.currentTimeMillis();
+        try {
+            long lastId = 0;
+            long count = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                List<Object> objs = mapper.selectObjs(new QueryWrapper<T>()
+                        .select("id").gt("id", lastId).orderByAsc("id").last("LIMIT " + pageSize));
+                if (objs.isEmpty()) {
+                    break;
+                }
+                List<Long> ids = new ArrayList<>(objs.size());
+                for (Object obj : objs) {
+                    ids.add(((Number) obj).longValue());
+                }
+                filter.addAllLocal(ids);
+                count += ids.size();
+                lastId = ids.get(ids.size() - 1);
+                if (ids.size() < pageSize) {
+                    break;
+                }
+            }
+            filter.publish();
+            log.info("布隆过滤器 {} 重建完成，id 数：{}，耗时 {} ms", filter.getName(), count, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            // 重建失败时不拦截任何 id
+            log.error("布隆过滤器 {} 重建失败", filter.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import com.hmdp.exception.BaseException;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * 附近商铺滚动分页的游标：上一页最后一个商铺的距离和 id，编码为 16 字节的 URL 安全 Base64，
+ * 对客户端不透明，原样回传即可
+ */
+public final class GeoCursor {
+
+    private final double distance;
+    private final long id;
+
+    public GeoCursor(double distance, long id) {
+        this.distance = distance;
+        this.id = id;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String encode() {
+        byte[] bytes = ByteBuffer.allocate(16).putDouble(distance).putLong(id).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @throws BaseException 游标格式不正确
+     */
+    public static GeoCursor decode(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new BaseException("分页游标无效");
+        }
+        if (bytes.length != 16) {
+            throw new BaseException("分页游标无效");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new GeoCursor(buffer.getDouble(), buffer.getLong());
+    }
+}
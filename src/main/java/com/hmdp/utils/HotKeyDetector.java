@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点 key 探测：滑动窗口 Count-Min Sketch。
+ * 窗口按秒分成若干格，每格一个 depth x width 的计数矩阵，另有一个矩阵保存整个窗口的累计值，
+ * 记录和估算都只需要访问 depth 个计数器；每秒 rotate 一次，从累计值中减去最旧一格并清空它。
+ * 估算值只会偏大（哈希冲突），误差约为窗口内总访问量的 e / width
+ */
+@Component
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 4096;
+
+    /**
+     * 每格的计数，下标为 row * WIDTH + column
+     */
+    private final AtomicLongArray[] slots;
+
+    /**
+     * 整个窗口的累计计数
+     */
+    private final AtomicLongArray window = new AtomicLongArray(DEPTH * WIDTH);
+
+    private volatile int current;
+
+    private final int windowSeconds;
+
+    /**
+     * 窗口内访问次数达到该值视为热点
+     */
+    private final long hotCount;
+
+    /**
+     * 最多同时提升的热点 key 数
+     */
+    private final int maxHotKeys;
+
+    /**
+     * @param thresholdQps 热点 key 的 QPS 阈值，降到一半以下时降级
+     * @param windowSeconds 统计窗口（秒）
+     * @param maxHotKeys 最多同时提升的热点 key 数
+     */
+    public HotKeyDetector(@Value("${hmdp.cache.hot.threshold-qps:500}") long thresholdQps,
+                          @Value("${hmdp.cache.hot.window-seconds:10}") int windowSeconds,
+                          @Value("${hmdp.cache.hot.max-keys:100}") int maxHotKeys) {
+        this.windowSeconds = Math.max(1, windowSeconds);
+        this.hotCount = Math.max(1, thresholdQps * this.windowSeconds);
+        this.maxHotKeys = maxHotKeys;
+        this.slots = new AtomicLongArray[this.windowSeconds];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new AtomicLongArray(DEPTH * WIDTH);
+        }
+    }
+
+    /**
+     * 记录一次访问
+     * @return 窗口内的访问量是否达到热点阈值
+     */
+    public boolean record(String key) {
+        int[] indexes = indexes(key);
+        AtomicLongArray slot = slots[current];
+        long min = Long.MAX_VALUE;
+        for (int index : indexes) {
+            slot.incrementAndGet(index);
+            min = Math.min(min, window.incrementAndGet(index));
+        }
+        return min >= hotCount;
+    }
+
+    /**
+     * 估算 key 在窗口内的平均 QPS
+     */
+    public double estimateQps(String key) {
+        long min = Long.MAX_VALUE;
+        for (int index : indexes(key)) {
+            min = Math.min(min, window.get(index));
+        }
+        return Math.max(0, min) / (double) windowSeconds;
+    }
+
+    /**
+     * 已提升的 key 是否已经冷却（QPS 低于阈值的一半），留出滞后区间避免在阈值附近反复提升、降级
+     */
+    public boolean isCool(String key) {
+        return estimateQps(key) * windowSeconds * 2 < hotCount;
+    }
+
+    public int getMaxHotKeys() {
+        return maxHotKeys;
+    }
+
+    /**
+     * 窗口前进一格，需要每秒调用一次
+     */
+    public void rotate() {
+        int next = (current + 1) % slots.length;
+        AtomicLongArray oldest = slots[next];
+        for (int i = 0; i < oldest.length(); i++) {
+            long count = oldest.getAndSet(i, 0);
+            if (count != 0) {
+                window.addAndGet(i, -count);
+            }
+        }
+        current = next;
+    }
+
+    private static int[] indexes(String key) {
+        // 两个独立哈希，按 h1 + i * h2 生成每一行的列
+        long h1 = mix(key.hashCode());
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        int[] indexes = new int[DEPTH];
+        for (int i = 0; i < DEPTH; i++) {
+            indexes[i] = i * WIDTH + (int) ((h1 + i * h2) & (WIDTH - 1));
+        }
+        return indexes;
+    }
+
+    /**
+     * SplitMix64 的混淆函数
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSON;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * JSON 编码，与原来直接使用 JSONUtil 写入的格式相同
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec", havingValue = "json")
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        // JSONUtil.toJsonStr(null) 返回 null，null 写为 JSON 的 null
+        return (value == null ? "null" : JSONUtil.toJsonStr(value)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return fromJson(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        return encode(redisData);
+    }
+
+    @Override
+    public RedisData decodeWithExpire(byte[] bytes, Class<?> type) {
+        // 先解析外层 RedisData，再把 data 从 JSONObject 转为目标类型
+        RedisData redisData = decode(bytes, RedisData.class);
+        redisData.setData(redisData.getData() == null ? null : JSONUtil.toBean((JSONObject) redisData.getData(), type));
+        return redisData;
+    }
+
+    @Override
+    public byte[] encodeWithRefresh(Object value, long expireTime, long delta) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        redisData.setDelta(delta);
+        return encode(redisData);
+    }
+
+    @Override
+    public RedisData decodeWithRefresh(byte[] bytes, Class<?> type) {
+        JSON json = JSONUtil.parse(new String(bytes, StandardCharsets.UTF_8));
+        RedisData redisData = new RedisData();
+        if (json instanceof JSONObject && ((JSONObject) json).containsKey("delta")) {
+            // 带刷新信息的 RedisData
+            JSONObject obj = (JSONObject) json;
+            redisData.setExpireTime(obj.getLong("expireTime", 0L));
+            redisData.setDelta(obj.getLong("delta", 0L));
+            redisData.setData(fromJson(JSONUtil.toJsonStr(obj.get("data")), type));
+        } else {
+            // 旧数据：直接是对象本身
+            redisData.setData(fromJson(json.toString(), type));
+        }
+        return redisData;
+    }
+
+    /**
+     * JSON 转为 type 类型，支持数组类型（如 ShopType[]）
+     */
+    static <T> T fromJson(String json, Class<T> type) {
+        if (json == null || "null".equals(json)) {
+            return null;
+        }
+        if (!type.isArray()) {
+            return JSONUtil.toBean(json, type);
+        }
+        List<?> list = JSONUtil.toList(JSONUtil.parseArray(json), type.getComponentType());
+        Object array = Array.newInstance(type.getComponentType(), list.size());
+        for (int i = 0; i < list.size(); i++) {
+            Array.set(array, i, list.get(i));
+        }
+        return type.cast(array);
+    }
+}
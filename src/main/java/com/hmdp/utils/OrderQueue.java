@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+
+import java.util.List;
+
+/**
+ * 秒杀订单队列：seckillVoucher 资格校验通过后把订单交给队列，由队列的消费线程批量交给 Handler 落库。
+ * 通过 hmdp.seckill.order.queue 选择实现：
+ * stream - Redis Stream，订单与扣库存在 seckill.lua 中原子写入分段的 Stream，可持久化、多节点消费；
+ * ring - 进程内环形缓冲区，只适用于单节点，进程退出时未落库的订单会丢失，换取更低的入队延迟
+ */
+public interface OrderQueue {
+
+    /**
+     * seckill.lua 是否直接写入分段的订单 Stream（SeckillKeys.orderStream），false 表示由调用方随后调用 offer 入队
+     */
+    boolean scriptStream();
+
+    /**
+     * 脚本第一次写入某个订单 Stream 之前调用，创建消费者组并登记，消费者据此找到所有 Stream
+     */
+    default void prepareStream(String streamKey) {
+    }
+
+    /**
+     * 订单入队
+     * @param order 订单
+     * @return true代表已入队（或已由脚本入队）；false代表队列已满
+     */
+    boolean offer(VoucherOrder order);
+
+    /**
+     * 启动消费线程
+     * @param handler 批量订单的处理逻辑
+     */
+    void start(Handler handler);
+
+    /**
+     * 停止消费线程
+     */
+    void stop();
+
+    interface Handler {
+
+        /**
+         * 处理一批订单，抛出异常表示整批失败，由队列决定是否重试
+         */
+        void handle(List<VoucherOrder> orders);
+
+        /**
+         * 多次重试仍失败、被放弃的订单，需要归还其占用的 Redis 库存和购买资格；
+         * 抛出异常时 stream 模式会在下一轮恢复时再次调用，实现需要幂等
+         */
+        void discard(List<VoucherOrder> orders);
+    }
+}
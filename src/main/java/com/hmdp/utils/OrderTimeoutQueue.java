@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_TIMEOUT_KEY;
+
+/**
+ * 未支付订单的延时队列：Redis ZSET，member 为订单id，score 为支付截止时间（毫秒）。
+ * 到期订单通过 Lua 原子认领，多个节点同时轮询时每个订单只会被一个节点取到
+ */
+@Component
+public class OrderTimeoutQueue {
+
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT;
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("order_timeout_claim.lua"));
+        CLAIM_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public OrderTimeoutQueue(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 批量加入延时队列，一条 ZADD 写入整批订单
+     * @param orderIds 订单id
+     * @param deadline 支付截止时间（毫秒）
+     */
+    public void schedule(List<Long> orderIds, long deadline) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(orderIds.size() * 2);
+        for (Long orderId : orderIds) {
+            tuples.add(new DefaultTypedTuple<>(orderId.toString(), (double) deadline));
+        }
+        stringRedisTemplate.opsForZSet().add(SECKILL_ORDER_TIMEOUT_KEY, tuples);
+    }
+
+    /**
+     * 认领一批到期订单，认领后 leaseMillis 内其它节点不会再取到这些订单
+     * @param now 当前时间（毫秒）
+     * @param count 最多认领的订单数
+     * @param leaseMillis 处理租约时长，超过后未 complete 的订单会被重新认领
+     * @return 到期的订单id
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> claim(long now, int count, long leaseMillis) {
+        List<String> members = stringRedisTemplate.execute(
+                CLAIM_SCRIPT,
+                Collections.singletonList(SECKILL_ORDER_TIMEOUT_KEY),
+                String.valueOf(now), String.valueOf(count), String.valueOf(now + leaseMillis)
+        );
+        return members == null ? Collections.emptyList() : members;
+    }
+
+    /**
+     * 处理完成，从延时队列中移除
+     */
+    public void complete(List<String> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().remove(SECKILL_ORDER_TIMEOUT_KEY, orderIds.toArray());
+    }
+}
@@ -10,19 +10,47 @@ public class RedisConstants {
 
     public static final Long CACHE_NULL_TTL = 2L;
 
-    public static final Long CACHE_SHOP_TTL = 30L;
+    public static final long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:dto:";
+    public static final long CACHE_USER_TTL = 30L;
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType";
-    public static final Long CACHE_SHOP_TYPE_TTL = 30L;
+    public static final long CACHE_SHOP_TYPE_TTL = 30L;
+    public static final String CACHE_SHOP_GEO_KEY = "cache:shopGeo:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+    public static final String BLOOM_FILTER_CHANNEL = "bloom:add";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String KEY_PREFIX = "lock:";
+    public static final String LOCK_GEO_RECONCILE_KEY = "lock:geo:reconcile";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_BUYERS_KEY = "seckill:buyers:";
+    public static final String SECKILL_LEGACY_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_RELEASED_KEY = "seckill:released:";
+    public static final Long SECKILL_RELEASED_TTL = 24L;
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders:";
+    public static final String SECKILL_ORDER_STREAMS_KEY = "stream.orders.registry";
+    public static final String SECKILL_ORDER_CONSUMERS_KEY = "stream.orders.consumers";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DLQ_KEY = "stream.orders.dlq";
+    public static final String LOCK_ORDER_STREAM_KEY = "lock:order:stream:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_RESTOCK_VERSION_KEY = "seckill:restock:";
+    public static final String SECKILL_RESULT_KEY = "seckill:result:";
+    public static final String SECKILL_RESULT_CHANNEL = "seckill:result";
+    public static final Long SECKILL_RESULT_TTL = 30L;
+    public static final String SECKILL_ORDER_TIMEOUT_KEY = "seckill:order:timeout";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_CHANGE_CHANNEL = "shop:change";
     public static final String USER_SIGN_KEY = "sign:";
 }
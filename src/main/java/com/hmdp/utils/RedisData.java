@@ -2,10 +2,15 @@ package com.hmdp.utils;
 
 import lombok.Data;
 
-import java.time.LocalDateTime;
-
 @Data
 public class RedisData {
-    private LocalDateTime expireTime;
+    /**
+     * 逻辑过期时间（毫秒时间戳）
+     */
+    private long expireTime;
+    /**
+     * 上次重建的耗时（毫秒），XFetch 提前刷新使用，0 表示未记录
+     */
+    private long delta;
     private Object data;
 }
@@ -1,12 +1,22 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
@@ -17,11 +27,51 @@ public class RedisIdWorker {
      * 序列号的位数
      */
     private static final int COUNT_BITS = 32;
+    /**
+     * 日期格式，精确到天
+     */
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    /**
+     * 号段用掉该比例后异步预取下一段
+     */
+    private static final double PREFETCH_RATIO = 0.8;
 
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 号段长度，每次 INCRBY 向 Redis 租用的序列号个数；小于等于1时退化为每次 INCR
+     */
+    private final int step;
+
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 号段预取线程，守护线程，不阻止进程退出；容器关闭时由 destroy 停止
+     */
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 缓存当天的日期字符串，跨天时才重新格式化
+     */
+    private volatile DateKey dateKey = new DateKey(Long.MIN_VALUE, null);
+
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+        this(stringRedisTemplate, 1);
+    }
+
+    @Autowired
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, @Value("${hmdp.id-worker.segment-step:1000}") int step) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.step = step;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        prefetchExecutor.shutdownNow();
     }
 
     public long nextId(String keyPrefix) {
@@ -32,11 +82,136 @@ public class RedisIdWorker {
 
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = currentDate(now);
         // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = step <= 1
+                ? stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date)
+                : buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(date);
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
     }
+
+    private String currentDate(LocalDateTime now) {
+        long epochDay = now.toLocalDate().toEpochDay();
+        DateKey d = dateKey;
+        if (d.epochDay != epochDay) {
+            d = new DateKey(epochDay, now.format(DATE_FORMATTER));
+            dateKey = d;
+        }
+        return d.date;
+    }
+
+    private static final class DateKey {
+        private final long epochDay;
+        private final String date;
+
+        private DateKey(long epochDay, String date) {
+            this.epochDay = epochDay;
+            this.date = date;
+        }
+    }
+
+    /**
+     * 一个号段：[start, max]，cursor 为下一个可分配的序列号
+     */
+    private static final class Segment {
+        private final String date;
+        private final long start;
+        private final long max;
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+
+        private Segment(String date, long start, long max) {
+            this.date = date;
+            this.start = start;
+            this.max = max;
+            this.prefetchAt = start + (long) ((max - start + 1) * PREFETCH_RATIO);
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    /**
+     * 每个业务前缀一个双号段缓冲：当前段无锁分配，用到一定比例时异步预取下一段
+     */
+    private final class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private Segment next;
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(String date) {
+            while (true) {
+                Segment s = current;
+                if (s == null || !s.date.equals(date)) {
+                    // 跨天后旧号段作废，否则可能与其它节点新一天的号段冲突
+                    switchSegment(s, date);
+                    continue;
+                }
+                long value = s.cursor.getAndIncrement();
+                if (value <= s.max) {
+                    if (value == s.prefetchAt) {
+                        // 每个号段只有一个线程会拿到这个值，保证只预取一次
+                        prefetch(date);
+                    }
+                    return value;
+                }
+                // 当前号段已用完
+                switchSegment(s, date);
+            }
+        }
+
+        private synchronized void switchSegment(Segment exhausted, String date) {
+            if (current != exhausted) {
+                // 其它线程已经切换过了
+                return;
+            }
+            Segment n = next;
+            next = null;
+            current = follows(n, exhausted, date) ? n : allocate(date);
+        }
+
+        private void prefetch(String date) {
+            if (prefetchExecutor.isShutdown()) {
+                // 容器关闭中，号段用完时同步申请
+                return;
+            }
+            try {
+                prefetchExecutor.submit(() -> {
+                    try {
+                        Segment segment = allocate(date);
+                        synchronized (this) {
+                            // 预取较慢时，号段可能已被同步申请的更大号段切换过，较小的号段直接丢弃，保证单调递增
+                            if (next == null && follows(segment, current, date)) {
+                                next = segment;
+                            }
+                        }
+                    } catch (Exception e) {
+                        // 预取失败不影响分配，号段用完时会同步申请
+                        log.error("预取号段失败，keyPrefix={}", keyPrefix, e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 与 destroy 并发，号段用完时同步申请
+            }
+        }
+
+        /**
+         * 号段 n 是否可以接在 s 之后使用：同一天且整体大于 s
+         */
+        private boolean follows(Segment n, Segment s, String date) {
+            return n != null && n.date.equals(date) && (s == null || !s.date.equals(date) || n.start > s.max);
+        }
+
+        /**
+         * INCRBY icr:{keyPrefix}:{date} step，租用 (end - step, end] 这一段序列号
+         */
+        private Segment allocate(String date) {
+            Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, step);
+            return new Segment(date, end - step + 1, end);
+        }
+    }
 }
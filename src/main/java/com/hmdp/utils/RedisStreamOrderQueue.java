@@ -0,0 +1,564 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_CONSUMERS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAMS_KEY;
+
+/**
+ * 基于 Redis Stream 的订单队列。
+ * 订单由 seckill.lua 在扣库存的同时 XADD 到该库存分段的 Stream stream.orders:{voucherId:分段}，与库存在同一个 slot；
+ * 每个 Stream 第一次写入前登记到 stream.orders.registry，消费者从中找到所有 Stream。
+ * 消费者定时在 stream.orders.consumers 中心跳，每个 Stream 按 rendezvous hash 归属一个存活的消费者，
+ * 由它持有该 Stream 的租约、顺序消费并处理 pending-list；消费者加入或下线时只有少量 Stream 换主。
+ * 吞吐量随集群消费者总数（节点数 × consumers）增长，上限为 Stream 数（秒杀券数 × 库存分段数），
+ * 单张热点券需要提高 stock-segments 才能由更多消费者并行落库。
+ * 失败的消息留在 pending-list 中，由拥有者认领重试或移入死信队列
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.seckill.order.queue", havingValue = "stream", matchIfMissing = true)
+public class RedisStreamOrderQueue implements OrderQueue {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 每次 XREADGROUP 最多读取的订单数
+     */
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 凑批的最长等待时间，超过后即使不满一批也立即落库
+     */
+    @Value("${hmdp.seckill.order.linger-ms:50}")
+    private long lingerMs;
+
+    /**
+     * 本节点的消费者线程数，每个消费者拥有一部分 Stream，超过 Stream 数的消费者处于空闲
+     */
+    @Value("${hmdp.seckill.order.consumers:2}")
+    private int consumers;
+
+    /**
+     * 实例标识，用于生成集群内唯一的消费者名称，默认取 主机名:端口
+     */
+    @Value("${hmdp.instance-id:}")
+    private String instanceId;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    /**
+     * pending 消息空闲超过该时间才会被认领重试
+     */
+    @Value("${hmdp.seckill.order.pending-idle-ms:30000}")
+    private long pendingIdleMs;
+
+    /**
+     * 最大投递次数，超过后移入死信队列
+     */
+    @Value("${hmdp.seckill.order.max-deliveries:5}")
+    private long maxDeliveries;
+
+    /**
+     * 每个 Stream 超过该长度后裁剪已确认的消息（近似裁剪）
+     */
+    @Value("${hmdp.seckill.order.stream-max-len:1000000}")
+    private long streamMaxLen;
+
+    @Value("${hmdp.seckill.order.recover-interval-seconds:5}")
+    private long recoverIntervalSeconds;
+
+    /**
+     * 消费者心跳超时时间，超时后其拥有的 Stream 由其它消费者接管
+     */
+    @Value("${hmdp.seckill.order.consumer-ttl-ms:10000}")
+    private long consumerTtlMs;
+
+    private static final DefaultRedisScript<Long> TRIM_SCRIPT;
+    static {
+        TRIM_SCRIPT = new DefaultRedisScript<>();
+        TRIM_SCRIPT.setLocation(new ClassPathResource("order_stream_trim.lua"));
+        TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 每一轮中同一 Stream 连续消费的最大批次数，避免一个繁忙的 Stream 饿死同一消费者拥有的其它 Stream
+     */
+    private static final int MAX_BATCHES_PER_ROUND = 16;
+
+    /**
+     * 每轮恢复中每个 Stream 最多扫描的 pending-list 页数，每页 batchSize 条
+     */
+    private static final int MAX_PENDING_PAGES_PER_ROUND = 10;
+
+    /**
+     * 每个 Stream 的 pending-list 扫描游标，没有记录时从头扫描
+     */
+    private final Map<String, String> pendingCursors = new ConcurrentHashMap<>();
+
+    /**
+     * 已登记的订单 Stream，启动时和每次心跳时从 stream.orders.registry 同步，本节点新登记的立即加入
+     */
+    private final Set<String> streams = ConcurrentHashMap.newKeySet();
+
+    //异步处理线程池
+    private ExecutorService consumerExecutor;
+
+    private Handler handler;
+
+    @Override
+    public boolean scriptStream() {
+        return true;
+    }
+
+    /**
+     * 创建消费者组并登记到 stream.orders.registry，每个 Stream 在每个节点上只执行一次
+     */
+    @Override
+    public void prepareStream(String streamKey) {
+        if (streams.contains(streamKey)) {
+            return;
+        }
+        createGroupIfAbsent(streamKey);
+        stringRedisTemplate.opsForSet().add(SECKILL_ORDER_STREAMS_KEY, streamKey);
+        streams.add(streamKey);
+    }
+
+    /**
+     * 订单已由 seckill.lua 写入 Stream，这里无需再入队
+     */
+    @Override
+    public boolean offer(VoucherOrder order) {
+        return true;
+    }
+
+    @Override
+    public void start(Handler handler) {
+        this.handler = handler;
+        // 1.读取已登记的 Stream，消费者组在登记时已创建
+        refreshStreams();
+        // 2.启动消费者，名称在集群内唯一
+        if (StrUtil.isBlank(instanceId)) {
+            instanceId = NetUtil.getLocalHostName() + ":" + serverPort;
+        }
+        consumerExecutor = Executors.newFixedThreadPool(consumers);
+        for (int i = 0; i < consumers; i++) {
+            consumerExecutor.submit(new VoucherOrderHandler(instanceId + "-c" + i));
+        }
+        log.info("订单消费者已启动，实例：{}，消费者数：{}，Stream 数：{}", instanceId, consumers, streams.size());
+    }
+
+    @Override
+    public void stop() {
+        if (consumerExecutor != null) {
+            // 消费者退出时释放租约并注销，其它节点立即接管
+            consumerExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 同步其它节点登记的 Stream
+     */
+    private void refreshStreams() {
+        Set<String> registered = stringRedisTemplate.opsForSet().members(SECKILL_ORDER_STREAMS_KEY);
+        if (registered != null) {
+            streams.addAll(registered);
+        }
+    }
+
+    /**
+     * XGROUP CREATE stream.orders:{voucherId:分段} g1 0 MKSTREAM，组已存在时忽略
+     */
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    streamKey.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (RuntimeException e) {
+            if (!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    // 用于线程池处理的任务
+    // 每个消费者只处理归属自己的 Stream，持有其租约，保证同一 Stream（同一库存分段）内的订单顺序落库
+    private class VoucherOrderHandler implements Runnable {
+
+        private final String consumerName;
+
+        /**
+         * 当前持有租约的 Stream，租约只能由获取它的线程释放，因此只在本线程内访问
+         */
+        private final Map<String, RLock> owned = new LinkedHashMap<>();
+
+        private List<String> live = Collections.emptyList();
+        private int knownStreams;
+        private long nextHeartbeat;
+        private long nextRecover;
+
+        VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    boolean consumed = false;
+                    try {
+                        // 1.心跳，并按存活的消费者重新分配 Stream；本节点登记了新 Stream 时也立即分配
+                        long now = System.currentTimeMillis();
+                        if (now >= nextHeartbeat) {
+                            live = heartbeat(now);
+                            nextHeartbeat = now + consumerTtlMs / 3;
+                            rebalance();
+                        } else if (streams.size() != knownStreams) {
+                            rebalance();
+                        }
+                        // 2.消费拥有的 Stream
+                        for (String streamKey : owned.keySet()) {
+                            consumed |= consumeStream(streamKey, consumerName);
+                        }
+                        // 3.认领 pending 消息并裁剪
+                        if (now >= nextRecover) {
+                            recoverPendingList(owned.keySet(), consumerName);
+                            nextRecover = now + TimeUnit.SECONDS.toMillis(recoverIntervalSeconds);
+                        }
+                    } catch (Exception e) {
+                        log.error("订单消费者异常，consumer={}", consumerName, e);
+                    }
+                    // 没有新订单，或还没有分到 Stream，稍后再试；被中断说明队列已停止
+                    if (!consumed && !ThreadUtil.sleep(lingerMs)) {
+                        break;
+                    }
+                }
+            } finally {
+                // 清除中断标记，保证能释放租约
+                Thread.interrupted();
+                release();
+            }
+        }
+
+        /**
+         * 刷新本消费者的心跳，清理超时的消费者
+         * @return 存活的消费者
+         */
+        private List<String> heartbeat(long now) {
+            stringRedisTemplate.opsForZSet().add(SECKILL_ORDER_CONSUMERS_KEY, consumerName, now);
+            stringRedisTemplate.opsForZSet().removeRangeByScore(SECKILL_ORDER_CONSUMERS_KEY, 0, now - consumerTtlMs);
+            Set<String> live = stringRedisTemplate.opsForZSet().range(SECKILL_ORDER_CONSUMERS_KEY, 0, -1);
+            refreshStreams();
+            return live == null ? Collections.singletonList(consumerName) : new ArrayList<>(live);
+        }
+
+        /**
+         * 释放不再归属自己的 Stream，获取新归属的 Stream 的租约。
+         * 前一个拥有者还没有释放时拿不到租约，下次心跳再试，同一 Stream 不会被两个消费者同时消费
+         */
+        private void rebalance() {
+            knownStreams = streams.size();
+            Iterator<Map.Entry<String, RLock>> iterator = owned.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, RLock> entry = iterator.next();
+                if (!consumerName.equals(owner(entry.getKey(), live))) {
+                    unlock(entry.getValue());
+                    iterator.remove();
+                }
+            }
+            for (String streamKey : streams) {
+                if (owned.containsKey(streamKey) || !consumerName.equals(owner(streamKey, live))) {
+                    continue;
+                }
+                RLock lock = redissonClient.getLock(LOCK_ORDER_STREAM_KEY + streamKey);
+                // 不指定租期，由看门狗续期，节点宕机后租约自动过期
+                if (lock.tryLock()) {
+                    owned.put(streamKey, lock);
+                }
+            }
+        }
+
+        private void release() {
+            for (RLock lock : owned.values()) {
+                unlock(lock);
+            }
+            owned.clear();
+            try {
+                stringRedisTemplate.opsForZSet().remove(SECKILL_ORDER_CONSUMERS_KEY, consumerName);
+            } catch (Exception e) {
+                log.warn("注销订单消费者失败，consumer={}", consumerName, e);
+            }
+        }
+
+        private void unlock(RLock lock) {
+            try {
+                if (lock.isHeldByCurrentThread()) {
+                    lock.unlock();
+                }
+            } catch (Exception e) {
+                log.warn("释放 Stream 租约失败，lock={}", lock.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * rendezvous hash：Stream 归属权重最大的消费者，消费者增减时只影响它自己拥有的 Stream
+     */
+    static String owner(String streamKey, Collection<String> consumers) {
+        String owner = null;
+        long best = 0;
+        for (String consumer : consumers) {
+            long weight = mix(((long) consumer.hashCode() << 32) ^ (streamKey.hashCode() & 0xFFFFFFFFL));
+            if (owner == null || weight > best || (weight == best && consumer.compareTo(owner) < 0)) {
+                owner = consumer;
+                best = weight;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * splitmix64 的混淆函数
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 消费一个 Stream：连续处理满批的消息，直到 Stream 空闲或达到一轮的批次上限
+     * @return 是否读到了订单
+     */
+    private boolean consumeStream(String streamKey, String consumerName) {
+        boolean consumed = false;
+        for (int round = 0; round < MAX_BATCHES_PER_ROUND; round++) {
+            try {
+                // 1.批量获取消息队列中的订单信息 XREADGROUP GROUP g1 consumer COUNT n STREAMS stream.orders:{voucherId:分段} >
+                List<MapRecord<String, Object, Object>> list = readOrderBatch(streamKey, consumerName);
+
+                // 2.判断订单信息是否为空
+                if (list.isEmpty()) {
+                    // 如果为空，说明该 Stream 暂时没有消息，去处理下一个 Stream
+                    return consumed;
+                }
+                consumed = true;
+
+                // 3.解析数据并批量创建订单
+                handler.handle(parseOrders(list));
+                // 4.整批确认消息 XACK
+                acknowledge(streamKey, list);
+
+                if (list.size() < batchSize) {
+                    return true;
+                }
+            } catch (Exception e) {
+                // 消息留在 pending-list 中，由 recoverPendingList 认领重试
+                log.error("处理订单异常", e);
+                return consumed;
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * 凑一批订单：先不阻塞地读取，没有消息立即返回，避免在空闲的 Stream 上等待；
+     * 读到消息后在 linger 时间内继续凑满 batchSize
+     * @return 本批消息，可能为空
+     */
+    private List<MapRecord<String, Object, Object>> readOrderBatch(String streamKey, String consumerName) {
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+        List<MapRecord<String, Object, Object>> first = stringRedisTemplate.opsForStream().read(
+                Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                StreamReadOptions.empty().count(batchSize),
+                StreamOffset.create(streamKey, ReadOffset.lastConsumed())
+        );
+        if (first == null || first.isEmpty()) {
+            return batch;
+        }
+        batch.addAll(first);
+        long deadline = System.currentTimeMillis() + lingerMs;
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                    StreamReadOptions.empty().count(batchSize - batch.size()).block(Duration.ofMillis(remaining)),
+                    StreamOffset.create(streamKey, ReadOffset.lastConsumed())
+            );
+            if (list == null || list.isEmpty()) {
+                break;
+            }
+            batch.addAll(list);
+        }
+        return batch;
+    }
+
+    private List<VoucherOrder> parseOrders(List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        return orders;
+    }
+
+    private void acknowledge(String streamKey, List<MapRecord<String, Object, Object>> records) {
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, ids);
+    }
+
+    /**
+     * 处理消息队列异常信息：
+     * 扫描拥有的 Stream 的 pending-list，XCLAIM 认领空闲过久的消息（包括已下线的消费者留下的），
+     * 投递次数超过上限的移入死信队列，最后裁剪 Stream 中已确认的消息。
+     * 由持有租约的消费者线程执行，重试的订单与该 Stream 正在落库的订单不会并发，顺序保持一致
+     */
+    private void recoverPendingList(Collection<String> streamKeys, String consumerName) {
+        for (String streamKey : streamKeys) {
+            try {
+                recoverStream(streamKey, consumerName);
+                trimStream(streamKey);
+            } catch (Exception e) {
+                log.error("处理pending订单异常，stream={}", streamKey, e);
+            }
+        }
+    }
+
+    /**
+     * 超过 stream-max-len 时裁剪到最早的 pending 消息（没有 pending 时到最后投递的消息），
+     * 未确认和未投递的订单不会被裁掉，之后仍能重试或移入死信队列
+     */
+    private void trimStream(String streamKey) {
+        stringRedisTemplate.execute(TRIM_SCRIPT, Collections.singletonList(streamKey),
+                SECKILL_ORDER_GROUP, String.valueOf(streamMaxLen));
+    }
+
+    /**
+     * 从上次的游标开始分页扫描 pending-list，每轮最多扫描 MAX_PENDING_PAGES_PER_ROUND 页，
+     * 扫描到末尾后游标回到开头，pending-list 再长也能逐轮扫描完整
+     */
+    private void recoverStream(String streamKey, String consumerName) {
+        String start = pendingCursors.get(streamKey);
+        for (int page = 0; page < MAX_PENDING_PAGES_PER_ROUND; page++) {
+            // 1.获取pending-list XPENDING stream.orders:{voucherId:分段} g1 start + count
+            Range<String> range = start == null ? Range.unbounded() : Range.rightUnbounded(Range.Bound.inclusive(start));
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, SECKILL_ORDER_GROUP, range, batchSize);
+            if (!pendingMessages.isEmpty()) {
+                recoverPage(streamKey, consumerName, pendingMessages);
+            }
+            if (pendingMessages.size() < batchSize) {
+                pendingCursors.remove(streamKey);
+                return;
+            }
+            // 2.下一页从本页最后一条消息之后开始
+            RecordId last = pendingMessages.get(pendingMessages.size() - 1).getId();
+            start = last.getTimestamp() + "-" + (last.getSequence() + 1);
+        }
+        pendingCursors.put(streamKey, start);
+    }
+
+    private void recoverPage(String streamKey, String consumerName, PendingMessages pendingMessages) {
+        // 1.按投递次数区分：重试 or 死信
+        List<RecordId> retryIds = new ArrayList<>();
+        Map<RecordId, Long> deadIds = new LinkedHashMap<>();
+        for (PendingMessage pending : pendingMessages) {
+            if (pending.getElapsedTimeSinceLastDelivery().toMillis() < pendingIdleMs) {
+                continue;
+            }
+            if (pending.getTotalDeliveryCount() >= maxDeliveries) {
+                deadIds.put(pending.getId(), pending.getTotalDeliveryCount());
+            } else {
+                retryIds.add(pending.getId());
+            }
+        }
+        if (!deadIds.isEmpty()) {
+            moveToDeadLetter(streamKey, deadIds);
+        }
+        if (retryIds.isEmpty()) {
+            return;
+        }
+        // 2.认领消息 XCLAIM，认领会使投递次数 +1，其它节点同时认领时只有一个能成功
+        List<MapRecord<String, Object, Object>> claimed = stringRedisTemplate.opsForStream().claim(
+                streamKey, SECKILL_ORDER_GROUP, consumerName,
+                Duration.ofMillis(pendingIdleMs), retryIds.toArray(new RecordId[0]));
+        // 3.逐条重试，避免一条坏消息拖垮整批
+        for (MapRecord<String, Object, Object> record : claimed) {
+            try {
+                handler.handle(parseOrders(Collections.singletonList(record)));
+                acknowledge(streamKey, Collections.singletonList(record));
+            } catch (Exception e) {
+                log.error("重试订单失败，stream={}，id={}", streamKey, record.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 将超过重试次数的消息交给 discard（归还 Redis 库存和购买资格），再写入死信队列并确认；
+     * 中途失败时消息仍在 pending-list 中，下一轮重新处理，discard 按订单保证只归还一次
+     */
+    private void moveToDeadLetter(String streamKey, Map<RecordId, Long> deadIds) {
+        for (Map.Entry<RecordId, Long> entry : deadIds.entrySet()) {
+            RecordId id = entry.getKey();
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                    .range(streamKey, Range.closed(id.getValue(), id.getValue()));
+            if (records == null || records.isEmpty()) {
+                // 消息已被裁剪，只能确认掉
+                log.error("死信消息已不存在，stream={}，id={}", streamKey, id);
+            } else {
+                handler.discard(parseOrders(records));
+                Map<Object, Object> value = new HashMap<>(records.get(0).getValue());
+                value.put("stream", streamKey);
+                value.put("messageId", id.getValue());
+                value.put("deliveries", entry.getValue().toString());
+                stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ_KEY, value);
+                log.error("订单消息超过重试次数，已移入死信队列，stream={}，id={}", streamKey, id);
+            }
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, id);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * 进程内的订单队列：预分配的多生产者单消费者环形缓冲区，入队无锁、无对象分配。
+ * 每个槽位带一个序号（Vyukov 有界队列）：序号 == 写位置 表示槽位空闲，序号 == 写位置 + 1 表示已写入待消费，
+ * 生产者 CAS 抢占写位置，消费者单线程批量取出后把序号推进一圈。
+ * 订单只保存在内存中，进程退出时未落库的订单会丢失，只适用于单节点部署
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.seckill.order.queue", havingValue = "ring")
+public class RingBufferOrderQueue implements OrderQueue {
+
+    private final int capacity;
+    private final int mask;
+    private final int batchSize;
+    private final long lingerNanos;
+
+    // 槽位数据，按列预分配
+    private final long[] orderIds;
+    private final long[] userIds;
+    private final long[] voucherIds;
+    private final AtomicLongArray sequences;
+
+    // 下一个写位置，生产者竞争
+    private final AtomicLong tail = new AtomicLong();
+
+    // 下一个读位置，只有消费线程访问
+    private long head;
+
+    private volatile Thread consumer;
+
+    /**
+     * 空闲时消费线程每次挂起的时间
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    @Autowired
+    public RingBufferOrderQueue(@Value("${hmdp.seckill.order.ring-capacity:65536}") int capacity,
+                                @Value("${hmdp.seckill.order.batch-size:100}") int batchSize,
+                                @Value("${hmdp.seckill.order.linger-ms:50}") long lingerMs) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("ring-capacity 必须是 2 的幂：" + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.orderIds = new long[capacity];
+        this.userIds = new long[capacity];
+        this.voucherIds = new long[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * seckill.lua 只扣库存、记录下单，不写 Stream
+     */
+    @Override
+    public boolean scriptStream() {
+        return false;
+    }
+
+    @Override
+    public boolean offer(VoucherOrder order) {
+        long pos;
+        int index;
+        for (;;) {
+            pos = tail.get();
+            index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                // 1.槽位空闲，抢占写位置
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // 2.槽位还没被消费，队列已满
+                return false;
+            }
+            // 3.其它生产者已抢先写入，重读写位置
+        }
+        orderIds[index] = order.getId();
+        userIds[index] = order.getUserId();
+        voucherIds[index] = order.getVoucherId();
+        // 发布：序号 +1 之前的写入对消费者可见
+        sequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    @Override
+    public void start(Handler handler) {
+        Thread thread = new Thread(() -> drainLoop(handler), "order-ring-consumer");
+        thread.setDaemon(true);
+        consumer = thread;
+        thread.start();
+        log.info("进程内订单队列已启动，容量：{}，批大小：{}", capacity, batchSize);
+    }
+
+    /**
+     * 停止消费线程，已入队的订单会在退出前尽量落库
+     */
+    @Override
+    public void stop() {
+        Thread thread = consumer;
+        consumer = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void drainLoop(Handler handler) {
+        List<VoucherOrder> batch = new ArrayList<>(batchSize);
+        long batchStart = 0;
+        while (consumer != null) {
+            // 1.批量取出已发布的订单
+            int drained = drain(batch, batchSize - batch.size());
+            if (drained > 0 && batchStart == 0) {
+                batchStart = System.nanoTime();
+            }
+            // 2.凑满一批或超过 linger 时间后落库
+            if (batch.size() >= batchSize || (!batch.isEmpty() && System.nanoTime() - batchStart >= lingerNanos)) {
+                process(handler, batch);
+                batch = new ArrayList<>(batchSize);
+                batchStart = 0;
+            } else if (drained == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        // 3.退出前把剩余订单落库
+        drain(batch, Integer.MAX_VALUE);
+        if (!batch.isEmpty()) {
+            process(handler, batch);
+        }
+    }
+
+    /**
+     * 从读位置开始连续取出已发布的订单，遇到未发布的槽位即停止
+     * @return 取出的订单数
+     */
+    private int drain(List<VoucherOrder> batch, int max) {
+        int n = 0;
+        while (n < max) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            VoucherOrder order = new VoucherOrder();
+            order.setId(orderIds[index]);
+            order.setUserId(userIds[index]);
+            order.setVoucherId(voucherIds[index]);
+            batch.add(order);
+            // 释放槽位给下一圈的生产者
+            sequences.lazySet(index, head + capacity);
+            head++;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 整批失败时逐条重试一次，仍失败的订单交给 discard
+     */
+    private void process(Handler handler, List<VoucherOrder> batch) {
+        try {
+            handler.handle(batch);
+            return;
+        } catch (Exception e) {
+            log.error("处理订单异常，逐条重试，batch={}", batch.size(), e);
+        }
+        List<VoucherOrder> failed = new ArrayList<>();
+        for (VoucherOrder order : batch) {
+            try {
+                handler.handle(Collections.singletonList(order));
+            } catch (Exception e) {
+                log.error("重试订单失败，id={}", order.getId(), e);
+                failed.add(order);
+            }
+        }
+        if (!failed.isEmpty()) {
+            try {
+                handler.discard(failed);
+            } catch (Exception e) {
+                log.error("放弃订单失败，ids={}", failed.stream().map(VoucherOrder::getId).collect(Collectors.toList()), e);
+            }
+        }
+    }
+}
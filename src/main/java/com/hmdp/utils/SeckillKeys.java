@@ -0,0 +1,61 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_BUYERS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_LEGACY_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RELEASED_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀相关的 redis key。
+ * 有元数据的秒杀券按分段保存库存、购买记录、已归还订单和订单 Stream，key 都带 hash tag {voucherId:分段}：
+ * 同一分段的 key 落在同一个 slot，每次脚本调用只访问一个分段，在 Cluster 下只涉及一个 slot，不同分段分散到不同 slot；
+ * 没有元数据的旧秒杀券沿用 seckill:stock:{id}、seckill:buyers:{id} 和一人一单的 set seckill:order:{id}，
+ * 这些 key 不在同一个 slot，只能用于单机 Redis
+ */
+public final class SeckillKeys {
+
+    private SeckillKeys() {
+    }
+
+    /**
+     * 用户的归属分段，限购只在归属分段中记录
+     */
+    public static int home(long userId, SeckillVoucherMeta meta) {
+        return meta == null ? 0 : (int) Math.floorMod(userId, (long) meta.getSegments());
+    }
+
+    public static String stock(long voucherId, SeckillVoucherMeta meta, int segment) {
+        return meta == null ? SECKILL_STOCK_KEY + voucherId : SECKILL_STOCK_KEY + tag(voucherId, segment);
+    }
+
+    public static String buyers(long voucherId, SeckillVoucherMeta meta, int segment) {
+        return meta == null ? SECKILL_BUYERS_KEY + voucherId : SECKILL_BUYERS_KEY + tag(voucherId, segment);
+    }
+
+    /**
+     * 已归还库存的订单id，保证每个取消的订单只归还一次
+     */
+    public static String released(long voucherId, SeckillVoucherMeta meta, int segment) {
+        return meta == null ? SECKILL_RELEASED_KEY + voucherId : SECKILL_RELEASED_KEY + tag(voucherId, segment);
+    }
+
+    /**
+     * 旧秒杀券一人一单的 set，有元数据的秒杀券没有该 key
+     */
+    public static String legacyOrder(long voucherId) {
+        return SECKILL_LEGACY_ORDER_KEY + voucherId;
+    }
+
+    /**
+     * 分段的订单 Stream，与该分段的库存在同一个 slot，由扣减该分段库存的脚本写入；
+     * 同一分段的订单按写入顺序消费，旧秒杀券只有分段 0
+     */
+    public static String orderStream(long voucherId, SeckillVoucherMeta meta, int segment) {
+        return SECKILL_ORDER_STREAM_KEY + tag(voucherId, meta == null ? 0 : segment);
+    }
+
+    private static String tag(long voucherId, int segment) {
+        return "{" + voucherId + ":" + segment + "}";
+    }
+}
@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESULT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_RESULT_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RESULT_TTL;
+
+/**
+ * 秒杀订单异步落库结果。
+ * 结果按 orderId 分桶写入小 hash（每桶最多 128 个订单，保持 Redis 的紧凑编码），
+ * 写入后通过发布订阅通知所有节点上等待该订单结果的请求
+ */
+@Slf4j
+@Component
+public class SeckillResultNotifier implements MessageListener {
+
+    /**
+     * 订单处理中（尚无结果）
+     */
+    public static final int PENDING = 0;
+    /**
+     * 订单已落库
+     */
+    public static final int SUCCESS = 1;
+    /**
+     * 订单落库失败（已进入死信队列）
+     */
+    public static final int FAILED = 2;
+
+    private static final int BUCKET_BITS = 7;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 本节点上正在等待结果的订单
+     */
+    private final ConcurrentHashMap<Long, CompletableFuture<Integer>> waiters = new ConcurrentHashMap<>();
+
+    public SeckillResultNotifier(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_RESULT_CHANNEL));
+    }
+
+    /**
+     * 批量写入订单结果并广播，一次 pipeline 完成所有 HSET + EXPIRE
+     * @param results orderId -> 结果状态
+     */
+    public void publish(Map<Long, Integer> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Map.Entry<Long, Integer> entry : results.entrySet()) {
+                String key = bucketKey(entry.getKey());
+                conn.hSet(key, entry.getKey().toString(), entry.getValue().toString());
+                conn.expire(key, TimeUnit.MINUTES.toSeconds(SECKILL_RESULT_TTL));
+                if (message.length() > 0) {
+                    message.append(',');
+                }
+                message.append(entry.getKey()).append(':').append(entry.getValue());
+            }
+            conn.publish(SECKILL_RESULT_CHANNEL, message.toString());
+            return null;
+        });
+    }
+
+    /**
+     * 查询订单结果
+     * @param orderId 订单id
+     * @return 结果状态，没有结果时返回 PENDING
+     */
+    public int query(long orderId) {
+        Object status = stringRedisTemplate.opsForHash().get(bucketKey(orderId), String.valueOf(orderId));
+        return status == null ? PENDING : Integer.parseInt(status.toString());
+    }
+
+    /**
+     * 等待订单结果，结果到达时 future 完成
+     * @param orderId 订单id
+     * @return 结果 future，调用方超时后需调用 {@link #cancel(long)}
+     */
+    public CompletableFuture<Integer> await(long orderId) {
+        CompletableFuture<Integer> future = waiters.computeIfAbsent(orderId, id -> new CompletableFuture<>());
+        // 注册之后再查一次，避免结果恰好在查询与注册之间写入而错过通知
+        int status = query(orderId);
+        if (status != PENDING) {
+            complete(orderId, status);
+        }
+        return future;
+    }
+
+    public void cancel(long orderId) {
+        waiters.remove(orderId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String item : StrUtil.split(body, ',')) {
+            int i = item.indexOf(':');
+            if (i <= 0) {
+                continue;
+            }
+            long orderId = Long.parseLong(item.substring(0, i));
+            if (waiters.containsKey(orderId)) {
+                complete(orderId, Integer.parseInt(item.substring(i + 1)));
+            }
+        }
+    }
+
+    private void complete(long orderId, int status) {
+        CompletableFuture<Integer> future = waiters.remove(orderId);
+        if (future != null) {
+            future.complete(status);
+        }
+    }
+
+    private static String bucketKey(long orderId) {
+        return SECKILL_RESULT_KEY + (orderId >>> BUCKET_BITS);
+    }
+}
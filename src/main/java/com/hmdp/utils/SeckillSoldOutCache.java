@@ -0,0 +1,193 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESTOCK_VERSION_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地售罄标记：优惠券售罄后，后续秒杀请求在 JVM 内直接拒绝，不再访问 Redis。
+ * 标记变化通过 Redis 发布订阅同步到所有节点。
+ * 每次补充库存把 seckill:restock:{id} 加 1 作为版本号，售罄标记带上扣库存前看到的版本，
+ * 版本低于已知版本的售罄标记（补充库存之前的判断）直接忽略，不会覆盖补充库存后的清除
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutCache implements MessageListener {
+
+    private static final String SOLD_OUT = "1";
+    private static final String RESET = "0";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 已售罄的优惠券id，开放寻址的 long 哈希表，0 表示空槽。
+     * 读多写极少，写时复制整张表，读操作无锁
+     */
+    private volatile long[] table = new long[16];
+
+    private int size;
+
+    /**
+     * 优惠券id -> 已知的最新补充库存版本
+     */
+    private final ConcurrentHashMap<Long, Long> versions = new ConcurrentHashMap<>();
+
+    public SeckillSoldOutCache(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 是否已售罄
+     * @param voucherId 优惠券id
+     * @return true代表已售罄
+     */
+    public boolean isSoldOut(long voucherId) {
+        long[] t = table;
+        int mask = t.length - 1;
+        for (int i = index(voucherId, mask); ; i = (i + 1) & mask) {
+            long v = t[i];
+            if (v == voucherId) {
+                return true;
+            }
+            if (v == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 当前的补充库存版本，本地没有时从 redis 加载一次，之后随补充库存的广播更新。
+     * 调用方在扣库存之前读取，售罄时传给 markSoldOut
+     * @param voucherId 优惠券id
+     */
+    public long version(long voucherId) {
+        Long version = versions.get(voucherId);
+        if (version != null) {
+            return version;
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_RESTOCK_VERSION_KEY + voucherId);
+        long loaded = value == null ? 0 : Long.parseLong(value);
+        return versions.merge(voucherId, loaded, Math::max);
+    }
+
+    /**
+     * 标记售罄并广播给其它节点
+     * @param voucherId 优惠券id
+     * @param version 扣库存之前读取的补充库存版本，低于已知版本时忽略
+     */
+    public void markSoldOut(long voucherId, long version) {
+        if (apply(SOLD_OUT, voucherId, version)) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + ":" + voucherId + ":" + version);
+        }
+    }
+
+    /**
+     * 库存补充后递增版本、清除售罄标记并广播给其它节点
+     * @param voucherId 优惠券id
+     */
+    public void reset(long voucherId) {
+        Long version = stringRedisTemplate.opsForValue().increment(SECKILL_RESTOCK_VERSION_KEY + voucherId);
+        long v = version == null ? 0 : version;
+        apply(RESET, voucherId, v);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESET + ":" + voucherId + ":" + v);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String[] parts = body.split(":");
+        if (parts.length != 3) {
+            log.warn("无法识别的售罄消息：{}", body);
+            return;
+        }
+        apply(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+    }
+
+    /**
+     * 按版本应用售罄或清除：售罄的版本不低于已知版本时标记，清除时更新已知版本
+     * @return 本地标记是否发生变化
+     */
+    private synchronized boolean apply(String type, long voucherId, long version) {
+        long known = versions.getOrDefault(voucherId, 0L);
+        if (version < known) {
+            return false;
+        }
+        versions.put(voucherId, version);
+        if (SOLD_OUT.equals(type)) {
+            return add(voucherId);
+        }
+        // 清除的版本与已知版本相同时（自己发出的广播），之后可能已经有同一版本的售罄标记
+        if (version > known) {
+            remove(voucherId);
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized boolean add(long voucherId) {
+        if (isSoldOut(voucherId)) {
+            return false;
+        }
+        long[] t = table;
+        // 负载因子不超过 0.5
+        int capacity = (size + 1) * 2 > t.length ? t.length * 2 : t.length;
+        long[] copy = new long[capacity];
+        for (long v : t) {
+            if (v != 0) {
+                insert(copy, v);
+            }
+        }
+        insert(copy, voucherId);
+        size++;
+        table = copy;
+        return true;
+    }
+
+    private synchronized void remove(long voucherId) {
+        if (!isSoldOut(voucherId)) {
+            return;
+        }
+        long[] t = table;
+        long[] copy = new long[t.length];
+        for (long v : t) {
+            if (v != 0 && v != voucherId) {
+                insert(copy, v);
+            }
+        }
+        size--;
+        table = copy;
+    }
+
+    private static void insert(long[] t, long voucherId) {
+        int mask = t.length - 1;
+        int i = index(voucherId, mask);
+        while (t[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        t[i] = voucherId;
+    }
+
+    private static int index(long voucherId, int mask) {
+        long h = voucherId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 秒杀券元数据，保存在 seckill:voucher:{id} 中，由调用方从本地缓存读取后传给 seckill.lua 原子校验
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillVoucherMeta {
+    /**
+     * 开始时间，epoch 毫秒，0 表示不限制
+     */
+    private long beginTime;
+    /**
+     * 结束时间，epoch 毫秒，0 表示不限制
+     */
+    private long endTime;
+    /**
+     * 每人限购数量
+     */
+    private int userLimit;
+    /**
+     * 库存分段数，1 表示不分段；各分段的 key 见 SeckillKeys
+     */
+    private int segments;
+
+    public boolean notBegun(long now) {
+        return beginTime > 0 && now < beginTime;
+    }
+
+    public boolean ended(long now) {
+        return endTime > 0 && now > endTime;
+    }
+}
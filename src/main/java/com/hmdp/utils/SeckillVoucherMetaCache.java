@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 秒杀券元数据的两级缓存：本地 Map + Redis hash。
+ * 元数据在创建秒杀券时写入，之后不再变化，因此本地缓存无需失效；
+ * 不存在的优惠券缓存一个空值，定期重新加载
+ */
+@Component
+public class SeckillVoucherMetaCache {
+
+    private static final long EMPTY_TTL_MILLIS = 60_000L;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ConcurrentHashMap<Long, Entry> cache = new ConcurrentHashMap<>();
+
+    public SeckillVoucherMetaCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 写入元数据（redis + 本地）
+     */
+    public void put(long voucherId, SeckillVoucherMeta meta) {
+        Map<String, String> map = new HashMap<>(8);
+        map.put("begin", String.valueOf(meta.getBeginTime()));
+        map.put("end", String.valueOf(meta.getEndTime()));
+        map.put("limit", String.valueOf(meta.getUserLimit()));
+        map.put("segments", String.valueOf(meta.getSegments()));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + voucherId, map);
+        cache.put(voucherId, new Entry(meta, Long.MAX_VALUE));
+    }
+
+    /**
+     * 查询元数据，本地未命中时从 redis 加载
+     * @return 元数据，不是秒杀券时返回 null
+     */
+    public SeckillVoucherMeta get(long voucherId) {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(voucherId);
+        if (entry != null && entry.expireAt > now) {
+            return entry.meta;
+        }
+        Map<Object, Object> map = stringRedisTemplate.opsForHash().entries(SECKILL_VOUCHER_KEY + voucherId);
+        SeckillVoucherMeta meta = map.isEmpty() ? null : new SeckillVoucherMeta(
+                Long.parseLong(map.get("begin").toString()),
+                Long.parseLong(map.get("end").toString()),
+                Integer.parseInt(map.get("limit").toString()),
+                Integer.parseInt(map.get("segments").toString()));
+        cache.put(voucherId, new Entry(meta, meta == null ? now + EMPTY_TTL_MILLIS : Long.MAX_VALUE));
+        return meta;
+    }
+
+    private static final class Entry {
+        private final SeckillVoucherMeta meta;
+        private final long expireAt;
+
+        private Entry(SeckillVoucherMeta meta, long expireAt) {
+            this.meta = meta;
+            this.expireAt = expireAt;
+        }
+    }
+}
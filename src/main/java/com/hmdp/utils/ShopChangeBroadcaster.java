@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.utils.RedisConstants.SHOP_CHANGE_CHANNEL;
+
+/**
+ * 商铺变更的跨节点同步：事务提交后把 ShopChangeEvent 发布到 redis 频道 shop:change，
+ * 其它节点收到后更新自己的本地坐标索引和名称索引。redis 中的数据只由发生变更的节点写入；
+ * 通知丢失时该节点的本地索引在下次启动重建前与数据库不一致
+ */
+@Slf4j
+@Component
+public class ShopChangeBroadcaster implements MessageListener {
+
+    /**
+     * 本节点的标识，忽略自己发出的通知
+     */
+    private final String nodeId = UUID.randomUUID().toString(true);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Resource
+    private ShopGeoMaintainer shopGeoMaintainer;
+
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    /**
+     * 频道中的一条变更
+     */
+    @Data
+    public static class Change {
+        private String node;
+        private Shop before;
+        private Shop after;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(SHOP_CHANGE_CHANNEL));
+    }
+
+    /**
+     * 事务提交后广播，没有事务时立即广播
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChange(ShopChangeEvent event) {
+        Change change = new Change();
+        change.setNode(nodeId);
+        change.setBefore(event.getBefore());
+        change.setAfter(event.getAfter());
+        try {
+            stringRedisTemplate.convertAndSend(SHOP_CHANGE_CHANNEL, JSONUtil.toJsonStr(change));
+        } catch (Exception e) {
+            log.error("广播商铺变更失败，shopId={}",
+                    event.getAfter() != null ? event.getAfter().getId() : event.getBefore().getId(), e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Change change;
+        try {
+            change = JSONUtil.toBean(new String(message.getBody(), StandardCharsets.UTF_8), Change.class);
+        } catch (Exception e) {
+            log.warn("无法识别的商铺变更通知", e);
+            return;
+        }
+        if (nodeId.equals(change.getNode())) {
+            return;
+        }
+        ShopChangeEvent event = new ShopChangeEvent(change.getBefore(), change.getAfter());
+        shopGeoMaintainer.applyLocal(event);
+        shopSearchIndex.onShopChange(event);
+    }
+}
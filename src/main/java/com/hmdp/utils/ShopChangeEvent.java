@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+/**
+ * 商铺变更事件，由 ShopServiceImpl 在写入数据库后发布，事务提交后由 ShopGeoMaintainer、ShopSearchIndex 处理，
+ * 并由 ShopChangeBroadcaster 通知其它节点
+ */
+public class ShopChangeEvent {
+
+    /**
+     * 变更前的商铺，新增时为 null
+     */
+    private final Shop before;
+
+    /**
+     * 变更后的商铺，删除时为 null
+     */
+    private final Shop after;
+
+    public ShopChangeEvent(Shop before, Shop after) {
+        this.before = before;
+        this.after = after;
+    }
+
+    public Shop getBefore() {
+        return before;
+    }
+
+    public Shop getAfter() {
+        return after;
+    }
+}
@@ -0,0 +1,303 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_GEO_KEY;
+
+/**
+ * 附近商铺结果缓存。坐标按 geohash 量化为格子，同一类型、同一格子内的请求共用一份候选集：
+ * 以格子中心为圆心、半径 + 格子半对角线内的商铺 id 和坐标（最多 max-candidates 个），经 CacheClient 缓存（短 TTL）。
+ * 每个请求按自己的坐标重新计算距离、过滤、排序和分页，结果与直接查询相同；
+ * 候选集被截断、覆盖不到请求的那一页时返回 null，由调用方直接查询。
+ * 商铺新增、修改时删除其新旧位置周围受影响的格子，删除通知广播到所有节点，
+ * 其它按格子共享的本地结果通过 addInvalidationListener 一并清除
+ */
+@Component
+public class ShopGeoCache {
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Value("${hmdp.geo.result-cache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * geohash 长度，6 位约 1.2 km x 0.6 km
+     */
+    @Value("${hmdp.geo.result-cache.precision:6}")
+    private int precision;
+
+    @Value("${hmdp.geo.result-cache.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    /**
+     * 每个格子最多缓存的候选商铺数
+     */
+    @Value("${hmdp.geo.result-cache.max-candidates:2000}")
+    private int maxCandidates;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    /**
+     * 格子删除通知的订阅者，参数为 typeId:geohash
+     */
+    private final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    private void init() {
+        // 格子的删除通知由 CacheClient 发布到所有节点（包括本节点）
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (key.startsWith(CACHE_SHOP_GEO_KEY)) {
+                String cellKey = key.substring(CACHE_SHOP_GEO_KEY.length());
+                invalidationListeners.forEach(listener -> listener.accept(cellKey));
+            }
+        }, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 查询候选集：以 (x, y) 为圆心、radius 为半径，按距离排序，最多 limit 个
+     */
+    @FunctionalInterface
+    public interface Searcher {
+        List<ShopGeoIndex.Nearby> search(double x, double y, double radius, int limit);
+    }
+
+    /**
+     * 一个格子的候选集
+     */
+    @Data
+    public static class Candidates {
+        private long[] ids;
+        private double[] xs;
+        private double[] ys;
+        /**
+         * 与格子中心距离不超过该值的商铺都在候选集中
+         */
+        private double coverage;
+    }
+
+    /**
+     * 从缓存的候选集中查询附近的商铺
+     * @param afterDistance 游标（上一页最后一个商铺的距离），不使用游标时传 -1
+     * @param afterId 游标（上一页最后一个商铺的 id）
+     * @param searcher 未命中时查询候选集
+     * @return 按 (距离, id) 排列的最多 limit 个商铺；未启用或候选集覆盖不到这一页时返回 null
+     */
+    public List<ShopGeoIndex.Nearby> query(Long typeId, double x, double y, double radius,
+                                           double afterDistance, long afterId, int limit, Searcher searcher) {
+        if (!enabled) {
+            return null;
+        }
+        requests.increment();
+        // 1.坐标所在的格子
+        Cell cell = new Cell(x, y);
+        double halfDiagonal = cell.halfDiagonal();
+        // 2.查询候选集
+        Candidates candidates = cacheClient.queryWithPassThrough(CACHE_SHOP_GEO_KEY + typeId + ":", cell.hash(),
+                Candidates.class, hash -> {
+                    loads.increment();
+                    return load(cell, radius + halfDiagonal, searcher);
+                }, ttlSeconds, TimeUnit.SECONDS);
+        if (candidates == null) {
+            return null;
+        }
+        // 3.按调用方的坐标重新计算距离
+        List<ShopGeoIndex.Nearby> list = new ArrayList<>();
+        for (int i = 0; i < candidates.ids.length; i++) {
+            double d = ShopGeoIndex.distance(x, y, candidates.xs[i], candidates.ys[i]);
+            if (d <= radius && ShopGeoIndex.isAfter(d, candidates.ids[i], afterDistance, afterId)) {
+                list.add(new ShopGeoIndex.Nearby(candidates.ids[i], d, candidates.xs[i], candidates.ys[i]));
+            }
+        }
+        list.sort(Comparator.comparingDouble(ShopGeoIndex.Nearby::getDistance)
+                .thenComparingLong(ShopGeoIndex.Nearby::getId));
+        List<ShopGeoIndex.Nearby> page = list.size() > limit ? new ArrayList<>(list.subList(0, limit)) : list;
+        // 4.这一页需要的范围（满一页时到最后一个商铺，否则到半径）必须在候选集的覆盖范围内，
+        // 调用方到格子中心的距离由三角不等式计入
+        double needed = page.size() == limit ? page.get(page.size() - 1).getDistance() : radius;
+        if (needed + ShopGeoIndex.distance(x, y, cell.centerX, cell.centerY) > candidates.coverage) {
+            bypassed.increment();
+            return null;
+        }
+        return page;
+    }
+
+    /**
+     * 订阅格子的删除通知，所有节点都会收到，参数为 typeId:geohash，与 cell(x, y).hash() 对应
+     */
+    public void addInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * 商铺位置变化后删除受影响的格子：格子中心在 radius + 半对角线范围内的都可能包含该商铺。
+     * 未启用候选集缓存时也发布删除通知，订阅者的本地结果同样需要清除
+     */
+    public void invalidate(Long typeId, double x, double y, double radius) {
+        Cell origin = new Cell(x, y);
+        double reach = radius + origin.halfDiagonal();
+        double latDelta = Math.toDegrees(reach / 6372797.560856);
+        double lonDelta = latDelta / Math.max(Math.cos(Math.toRadians(y)), 1e-6);
+        long minLon = lonIndex(x - lonDelta);
+        long maxLon = lonIndex(x + lonDelta);
+        long minLat = latIndex(y - latDelta);
+        long maxLat = latIndex(y + latDelta);
+        List<String> keys = new ArrayList<>();
+        for (long lon = minLon; lon <= maxLon; lon++) {
+            for (long lat = minLat; lat <= maxLat; lat++) {
+                Cell cell = new Cell(lon, lat);
+                if (ShopGeoIndex.distance(x, y, cell.centerX, cell.centerY) <= reach) {
+                    keys.add(CACHE_SHOP_GEO_KEY + typeId + ":" + cell.hash());
+                }
+            }
+        }
+        cacheInvalidator.invalidate(keys);
+    }
+
+    /**
+     * 坐标所在的 geohash 格子，其它按格子共享查询结果的地方（滚动分页回退到 redis 时）使用相同的量化方式
+     */
+    public Cell cell(double x, double y) {
+        return new Cell(x, y);
+    }
+
+    /**
+     * 命中率
+     * @return 请求数、候选集加载次数、命中率、候选集覆盖不到而直接查询的次数
+     */
+    public Map<String, Object> stats() {
+        long total = requests.sum();
+        long miss = loads.sum();
+        Map<String, Object> stats = new LinkedHashMap<>(8);
+        stats.put("requests", total);
+        stats.put("loads", miss);
+        stats.put("hitRate", total == 0 ? 0 : (double) (total - miss) / total);
+        stats.put("bypassed", bypassed.sum());
+        return stats;
+    }
+
+    private Candidates load(Cell cell, double reach, Searcher searcher) {
+        List<ShopGeoIndex.Nearby> list = searcher.search(cell.centerX, cell.centerY, reach, maxCandidates);
+        Candidates candidates = new Candidates();
+        candidates.ids = new long[list.size()];
+        candidates.xs = new double[list.size()];
+        candidates.ys = new double[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            ShopGeoIndex.Nearby nearby = list.get(i);
+            candidates.ids[i] = nearby.getId();
+            candidates.xs[i] = nearby.getX();
+            candidates.ys[i] = nearby.getY();
+        }
+        // 被截断时只能保证最后一个商铺之内的都在候选集中
+        candidates.coverage = list.size() < maxCandidates ? reach : list.get(list.size() - 1).getDistance();
+        return candidates;
+    }
+
+    private int lonBits() {
+        return (precision * 5 + 1) / 2;
+    }
+
+    private int latBits() {
+        return precision * 5 / 2;
+    }
+
+    private long lonIndex(double x) {
+        long cells = 1L << lonBits();
+        return Math.max(0, Math.min(cells - 1, (long) Math.floor((x + 180) / 360 * cells)));
+    }
+
+    private long latIndex(double y) {
+        long cells = 1L << latBits();
+        return Math.max(0, Math.min(cells - 1, (long) Math.floor((y + 90) / 180 * cells)));
+    }
+
+    /**
+     * geohash 格子：经度、纬度方向的下标和中心点
+     */
+    public final class Cell {
+        private final long lon;
+        private final long lat;
+        private final double centerX;
+        private final double centerY;
+
+        Cell(double x, double y) {
+            this(lonIndex(x), latIndex(y));
+        }
+
+        Cell(long lon, long lat) {
+            this.lon = lon;
+            this.lat = lat;
+            this.centerX = (lon + 0.5) * 360 / (1L << lonBits()) - 180;
+            this.centerY = (lat + 0.5) * 180 / (1L << latBits()) - 90;
+        }
+
+        public double centerX() {
+            return centerX;
+        }
+
+        public double centerY() {
+            return centerY;
+        }
+
+        /**
+         * 中心到角的距离（米）
+         */
+        public double halfDiagonal() {
+            double lonSpan = 360.0 / (1L << lonBits());
+            double latSpan = 180.0 / (1L << latBits());
+            return ShopGeoIndex.distance(centerX, centerY, centerX + lonSpan / 2, centerY + latSpan / 2);
+        }
+
+        /**
+         * 经纬度下标交替取位（经度在前），每 5 位一个 base32 字符
+         */
+        public String hash() {
+            int lonBits = lonBits();
+            int latBits = latBits();
+            char[] chars = new char[precision];
+            int value = 0;
+            int lonLeft = lonBits;
+            int latLeft = latBits;
+            for (int i = 0; i < precision * 5; i++) {
+                int bit = (i & 1) == 0
+                        ? (int) (lon >>> --lonLeft) & 1
+                        : (int) (lat >>> --latLeft) & 1;
+                value = (value << 1) | bit;
+                if (i % 5 == 4) {
+                    chars[i / 5] = BASE32[value];
+                    value = 0;
+                }
+            }
+            return new String(chars);
+        }
+    }
+}
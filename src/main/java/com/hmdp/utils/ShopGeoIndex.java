@@ -0,0 +1,416 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 进程内的商铺坐标索引，每个类型一个等经纬度网格，格内用基本类型数组保存 id 和坐标。
+ * 半径查询只扫描与外接矩形相交的格子，距离公式与 redis 相同（haversine，地球半径 6372797.560856 米），
+ * 用大小为 limit 的大顶堆选出最近的商铺。
+ * 启动预热时按类型整体构建（CacheWarmer），之后随商铺的新增、修改增量更新；未构建完成的类型由调用方回退到 redis GEOSEARCH
+ */
+@Component
+public class ShopGeoIndex {
+
+    private static final double EARTH_RADIUS = 6372797.560856;
+
+    /**
+     * 格子边长（度）
+     */
+    private final double cellDegrees;
+
+    /**
+     * 类型 -> 已构建完成的网格
+     */
+    private final Map<Long, Grid> grids = new ConcurrentHashMap<>();
+
+    /**
+     * 类型 -> 正在构建的网格，构建期间的增量更新同时写入
+     */
+    private final Map<Long, Grid> building = new ConcurrentHashMap<>();
+
+    /**
+     * 商铺 id -> 所在类型，类型变化时从原类型中删除
+     */
+    private final Map<Long, Long> shopTypes = new ConcurrentHashMap<>();
+
+    public ShopGeoIndex(@Value("${hmdp.geo.cell-degrees:0.01}") double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    /**
+     * 附近的一个商铺
+     */
+    public static class Nearby {
+        private final long id;
+        private final double distance;
+        private final double x;
+        private final double y;
+
+        public Nearby(long id, double distance, double x, double y) {
+            this.id = id;
+            this.distance = distance;
+            this.x = x;
+            this.y = y;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * 距离（米）
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+
+    public boolean isReady(Long typeId) {
+        return grids.containsKey(typeId);
+    }
+
+    /**
+     * 开始（重新）构建一个类型的索引，调用 add 写入全部商铺后调用 publish 替换原来的索引
+     */
+    public void beginBuild(Long typeId) {
+        building.put(typeId, new Grid());
+    }
+
+    /**
+     * 构建期间写入一批商铺
+     */
+    public void add(Long typeId, List<Shop> shops) {
+        Grid grid = building.get(typeId);
+        if (grid == null) {
+            return;
+        }
+        grid.lock.writeLock().lock();
+        try {
+            for (Shop shop : shops) {
+                grid.put(shop.getId(), shop.getX(), shop.getY());
+                shopTypes.put(shop.getId(), typeId);
+            }
+        } finally {
+            grid.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 构建完成，开始使用新索引
+     */
+    public void publish(Long typeId) {
+        Grid grid = building.remove(typeId);
+        if (grid != null) {
+            grids.put(typeId, grid);
+        }
+    }
+
+    /**
+     * 新增或更新一个商铺的坐标，类型变化时从原类型中删除
+     */
+    public void put(Long typeId, Long shopId, double x, double y) {
+        Long oldType = shopTypes.put(shopId, typeId);
+        if (oldType != null && !oldType.equals(typeId)) {
+            removeFrom(oldType, shopId);
+        }
+        forEachGrid(typeId, grid -> grid.put(shopId, x, y));
+    }
+
+    /**
+     * 删除一个商铺
+     */
+    public void remove(Long shopId) {
+        Long typeId = shopTypes.remove(shopId);
+        if (typeId != null) {
+            removeFrom(typeId, shopId);
+        }
+    }
+
+    /**
+     * 半径查询
+     * @param radius 半径（米）
+     * @param limit 最多返回的商铺数
+     * @return 按距离从近到远排列，距离相同按 id 排列
+     */
+    public List<Nearby> search(Long typeId, double x, double y, double radius, int limit) {
+        return searchAfter(typeId, x, y, radius, -1, 0, limit);
+    }
+
+    /**
+     * 从游标之后继续半径查询：只返回排在 (afterDistance, afterId) 之后的商铺，
+     * 每页都只扫描一次半径内的格子、维护大小为 limit 的堆，与翻到第几页无关
+     * @param afterDistance 上一页最后一个商铺的距离（米），第一页传 -1
+     * @param afterId 上一页最后一个商铺的 id
+     */
+    public List<Nearby> searchAfter(Long typeId, double x, double y, double radius,
+                                    double afterDistance, long afterId, int limit) {
+        Grid grid = grids.get(typeId);
+        if (grid == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // 1.外接矩形覆盖的格子范围
+        double latDelta = Math.toDegrees(radius / EARTH_RADIUS);
+        double lonDelta = latDelta / Math.max(Math.cos(Math.toRadians(y)), 1e-6);
+        long minCx = cell(x - lonDelta);
+        long maxCx = cell(x + lonDelta);
+        long minCy = cell(y - latDelta);
+        long maxCy = cell(y + latDelta);
+        // 2.扫描格子，用大顶堆保留最近的 limit 个
+        TopK topK = new TopK(limit);
+        grid.lock.readLock().lock();
+        try {
+            for (long cx = minCx; cx <= maxCx; cx++) {
+                for (long cy = minCy; cy <= maxCy; cy++) {
+                    Cell cell = grid.cells.get(cellKey(cx, cy));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.size; i++) {
+                        double d = distance(x, y, cell.xs[i], cell.ys[i]);
+                        if (d <= radius && isAfter(d, cell.ids[i], afterDistance, afterId)) {
+                            topK.offer(cell.ids[i], d, cell.xs[i], cell.ys[i]);
+                        }
+                    }
+                }
+            }
+        } finally {
+            grid.lock.readLock().unlock();
+        }
+        return topK.sorted();
+    }
+
+    /**
+     * 索引中的商铺数
+     */
+    public Map<Long, Integer> sizes() {
+        Map<Long, Integer> sizes = new HashMap<>(grids.size() * 2);
+        grids.forEach((typeId, grid) -> sizes.put(typeId, grid.shopCells.size()));
+        return sizes;
+    }
+
+    /**
+     * (distance, id) 是否排在 (afterDistance, afterId) 之后
+     */
+    public static boolean isAfter(double distance, long id, double afterDistance, long afterId) {
+        return distance > afterDistance || (distance == afterDistance && id > afterId);
+    }
+
+    private void removeFrom(Long typeId, Long shopId) {
+        forEachGrid(typeId, grid -> grid.remove(shopId));
+    }
+
+    private void forEachGrid(Long typeId, Consumer<Grid> action) {
+        for (Grid grid : new Grid[]{grids.get(typeId), building.get(typeId)}) {
+            if (grid == null) {
+                continue;
+            }
+            grid.lock.writeLock().lock();
+            try {
+                action.accept(grid);
+            } finally {
+                grid.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private long cell(double degrees) {
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return (cx << 32) ^ (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 两点间的球面距离（米），与 redis GEODIST 相同
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    /**
+     * 一个类型的网格，读写锁保护
+     */
+    private final class Grid {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, Cell> cells = new HashMap<>();
+        /**
+         * 商铺 id -> 所在格子
+         */
+        private final Map<Long, Long> shopCells = new HashMap<>();
+
+        void put(long shopId, double x, double y) {
+            long key = cellKey(cell(x), cell(y));
+            Long oldKey = shopCells.put(shopId, key);
+            if (oldKey != null) {
+                cells.get(oldKey).remove(shopId);
+            }
+            cells.computeIfAbsent(key, k -> new Cell()).add(shopId, x, y);
+        }
+
+        void remove(long shopId) {
+            Long key = shopCells.remove(shopId);
+            if (key != null) {
+                Cell cell = cells.get(key);
+                cell.remove(shopId);
+                if (cell.size == 0) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个格子内的商铺，删除时用最后一个元素填补空位
+     */
+    private static final class Cell {
+        private long[] ids = new long[4];
+        private double[] xs = new double[4];
+        private double[] ys = new double[4];
+        private int size;
+
+        void add(long id, double x, double y) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        void remove(long id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    size--;
+                    ids[i] = ids[size];
+                    xs[i] = xs[size];
+                    ys[i] = ys[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按 (距离, id) 保留最近 k 个的大顶堆
+     */
+    private static final class TopK {
+        private final long[] ids;
+        private final double[] distances;
+        private final double[] xs;
+        private final double[] ys;
+        private int size;
+
+        TopK(int k) {
+            ids = new long[k];
+            distances = new double[k];
+            xs = new double[k];
+            ys = new double[k];
+        }
+
+        void offer(long id, double distance, double x, double y) {
+            int i;
+            if (size < ids.length) {
+                i = size++;
+            } else if (isAfter(distances[0], ids[0], distance, id)) {
+                i = 0;
+            } else {
+                return;
+            }
+            ids[i] = id;
+            distances[i] = distance;
+            xs[i] = x;
+            ys[i] = y;
+            if (i == 0 && size == ids.length) {
+                siftDown(0, size);
+            } else {
+                siftUp(i);
+            }
+        }
+
+        List<Nearby> sorted() {
+            // 堆排序：依次把堆顶（最远）换到末尾
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            List<Nearby> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(new Nearby(ids[i], distances[i], xs[i], ys[i]));
+            }
+            return result;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!isAfter(distances[i], ids[i], distances[parent], ids[parent])) {
+                    return;
+                }
+                swap(parent, i);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i, int n) {
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < n && isAfter(distances[left], ids[left], distances[largest], ids[largest])) {
+                    largest = left;
+                }
+                if (right < n && isAfter(distances[right], ids[right], distances[largest], ids[largest])) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double d = distances[a];
+            distances[a] = distances[b];
+            distances[b] = d;
+            d = xs[a];
+            xs[a] = xs[b];
+            xs[b] = d;
+            d = ys[a];
+            ys[a] = ys[b];
+            ys[b] = d;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_GEO_RECONCILE_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 商铺坐标索引的维护。
+ * <ol>
+ *     <li>事务提交后处理 ShopChangeEvent：立即更新本地坐标索引（其它节点由 ShopChangeBroadcaster 通知后更新）；redis 的 shop:geo:{typeId} 先按商铺合并到待写队列，
+ *     每 flush-ms 按 batch-size 分批在 pipeline 中执行 GEOADD / ZREM。类型变化时从原类型的 key 中删除</li>
+ *     <li>定时对账：按类型以主键分页流式读取 tb_shop，与 GEOPOS 比较后补写缺失或坐标变化的商铺；
+ *     再 ZSCAN 每个 key，删除数据库中已不属于该类型的商铺。多个实例通过分布式锁只有一个在执行</li>
+ * </ol>
+ */
+@Slf4j
+@Component
+public class ShopGeoMaintainer {
+
+    /**
+     * GEOPOS 与数据库坐标的差距超过该值（米）视为坐标变化，redis 的 52 位 geohash 精度约 0.6 米
+     */
+    private static final double MOVED_METERS = 1;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Value("${hmdp.geo.maintenance.flush-ms:100}")
+    private long flushMillis;
+
+    /**
+     * 每个 pipeline 最多包含的商铺数
+     */
+    @Value("${hmdp.geo.maintenance.batch-size:500}")
+    private int batchSize;
+
+    @Value("${hmdp.geo.reconcile.enabled:true}")
+    private boolean reconcileEnabled;
+
+    @Value("${hmdp.geo.reconcile.interval-minutes:60}")
+    private long reconcileIntervalMinutes;
+
+    /**
+     * 对账时每次读取的商铺数
+     */
+    @Value("${hmdp.geo.reconcile.chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * 商铺 id -> 待写入 redis 的最终状态，同一商铺的多次变更合并为一次
+     */
+    private Map<Long, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * 写出待写队列的线程
+     */
+    private ScheduledExecutorService flushExecutor;
+
+    /**
+     * 对账线程，对账可能持续较久，与写出分开，不会推迟变更的写出
+     */
+    private ScheduledExecutorService reconcileExecutor;
+
+    @PostConstruct
+    private void init() {
+        flushExecutor = Executors.newSingleThreadScheduledExecutor();
+        flushExecutor.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        if (reconcileEnabled) {
+            reconcileExecutor = Executors.newSingleThreadScheduledExecutor();
+            reconcileExecutor.scheduleWithFixedDelay(this::reconcile,
+                    reconcileIntervalMinutes, reconcileIntervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (reconcileExecutor != null) {
+            reconcileExecutor.shutdownNow();
+        }
+        flushExecutor.shutdownNow();
+        // 写出剩余的变更，未写出的由下一次对账补齐
+        flush();
+    }
+
+    /**
+     * 事务提交后处理商铺变更，没有事务时立即处理
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChange(ShopChangeEvent event) {
+        Shop before = event.getBefore();
+        Shop after = hasLocation(event.getAfter()) ? event.getAfter() : null;
+        if (after == null && before == null) {
+            return;
+        }
+        Long shopId = after != null ? after.getId() : before.getId();
+        // 1.本地坐标索引，其它节点由 ShopChangeBroadcaster 通知后更新
+        applyLocal(event);
+        // 2.合并到待写队列
+        synchronized (this) {
+            Pending p = pending.computeIfAbsent(shopId, id -> new Pending());
+            if (p.typeId != null) {
+                p.removeFrom.add(p.typeId);
+            }
+            if (before != null && before.getTypeId() != null) {
+                p.removeFrom.add(before.getTypeId());
+            }
+            p.typeId = after != null ? after.getTypeId() : null;
+            if (after != null) {
+                p.x = after.getX();
+                p.y = after.getY();
+                p.removeFrom.remove(p.typeId);
+            }
+        }
+    }
+
+    /**
+     * 只更新本节点的坐标索引，redis 由发生变更的节点写入
+     */
+    public void applyLocal(ShopChangeEvent event) {
+        Shop before = event.getBefore();
+        Shop after = event.getAfter();
+        if (hasLocation(after)) {
+            shopGeoIndex.put(after.getTypeId(), after.getId(), after.getX(), after.getY());
+        } else if (after != null || before != null) {
+            shopGeoIndex.remove(after != null ? after.getId() : before.getId());
+        }
+    }
+
+    /**
+     * 写出待写队列：GEOADD 按 key 合并为一条命令，ZREM 同样按 key 合并，每 batch-size 个商铺一个 pipeline
+     */
+    private void flush() {
+        Map<Long, Pending> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        List<Map.Entry<Long, Pending>> entries = new ArrayList<>(batch.entrySet());
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            List<Map.Entry<Long, Pending>> chunk = entries.subList(from, Math.min(entries.size(), from + batchSize));
+            Map<String, Map<String, Point>> adds = new HashMap<>();
+            Map<String, List<String>> removes = new HashMap<>();
+            for (Map.Entry<Long, Pending> entry : chunk) {
+                String member = entry.getKey().toString();
+                Pending p = entry.getValue();
+                if (p.typeId != null) {
+                    adds.computeIfAbsent(SHOP_GEO_KEY + p.typeId, k -> new HashMap<>())
+                            .put(member, new Point(p.x, p.y));
+                }
+                for (Long typeId : p.removeFrom) {
+                    removes.computeIfAbsent(SHOP_GEO_KEY + typeId, k -> new ArrayList<>()).add(member);
+                }
+            }
+            try {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    adds.forEach((key, members) -> conn.geoAdd(key, members));
+                    removes.forEach((key, members) -> conn.zRem(key, members.toArray(new String[0])));
+                    return null;
+                });
+            } catch (Exception e) {
+                // 失败的变更由下一次对账补齐
+                log.error("写入商铺 GEO 索引失败，商铺数：{}", chunk.size(), e);
+            }
+        }
+    }
+
+    /**
+     * 对账所有类型，其它实例正在对账时跳过
+     */
+    private void reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_GEO_RECONCILE_KEY);
+        try {
+            if (!lock.tryLock()) {
+                return;
+            }
+        } catch (Exception e) {
+            // 抛出异常会取消之后的定时执行
+            log.error("获取商铺 GEO 对账锁失败", e);
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            int[] total = new int[2];
+            for (ShopType type : shopTypeService.queryTypeList()) {
+                int[] counts = reconcileType(type.getId());
+                total[0] += counts[0];
+                total[1] += counts[1];
+            }
+            log.info("商铺 GEO 对账完成，补写：{}，删除：{}，耗时 {} ms",
+                    total[0], total[1], System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("商铺 GEO 对账失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 对账一个类型
+     * @return [补写的商铺数, 删除的商铺数]
+     */
+    private int[] reconcileType(Long typeId) {
+        String key = SHOP_GEO_KEY + typeId;
+        // 1.数据库 -> redis：按主键分页读取坐标，一次 GEOPOS 取回这一页在 redis 中的坐标
+        int added = 0;
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "x", "y")
+                    .eq("type_id", typeId).gt("id", lastId)
+                    .orderByAsc("id").last("LIMIT " + chunkSize));
+            if (shops.isEmpty()) {
+                break;
+            }
+            String[] members = new String[shops.size()];
+            for (int i = 0; i < shops.size(); i++) {
+                members[i] = shops.get(i).getId().toString();
+            }
+            List<Point> positions = stringRedisTemplate.opsForGeo().position(key, members);
+            Map<String, Point> missing = new HashMap<>();
+            for (int i = 0; i < shops.size(); i++) {
+                Shop shop = shops.get(i);
+                Point point = positions == null ? null : positions.get(i);
+                if (point == null || ShopGeoIndex.distance(point.getX(), point.getY(), shop.getX(), shop.getY()) > MOVED_METERS) {
+                    missing.put(members[i], new Point(shop.getX(), shop.getY()));
+                }
+            }
+            if (!missing.isEmpty()) {
+                stringRedisTemplate.opsForGeo().add(key, missing);
+                added += missing.size();
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            if (shops.size() < chunkSize) {
+                break;
+            }
+        }
+        // 2.redis -> 数据库：ZSCAN 分批取出成员，删除数据库中不存在或已不属于该类型的商铺
+        int removed = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(chunkSize).build();
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor = stringRedisTemplate.opsForZSet().scan(key, options)) {
+            List<Long> ids = new ArrayList<>(chunkSize);
+            while (cursor.hasNext()) {
+                ids.add(Long.valueOf(cursor.next().getValue()));
+                if (ids.size() == chunkSize || !cursor.hasNext()) {
+                    removed += removeStale(key, typeId, ids);
+                    ids.clear();
+                }
+            }
+        } catch (Exception e) {
+            log.error("对账类型 {} 的多余商铺失败", typeId, e);
+        }
+        return new int[]{added, removed};
+    }
+
+    private int removeStale(String key, Long typeId, List<Long> ids) {
+        Set<Long> existing = new HashSet<>();
+        for (Shop shop : shopMapper.selectList(new QueryWrapper<Shop>()
+                .select("id").eq("type_id", typeId).in("id", ids))) {
+            existing.add(shop.getId());
+        }
+        List<String> stale = new ArrayList<>();
+        for (Long id : ids) {
+            if (!existing.contains(id)) {
+                stale.add(id.toString());
+            }
+        }
+        if (!stale.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(key, stale.toArray());
+        }
+        return stale.size();
+    }
+
+    private static boolean hasLocation(Shop shop) {
+        return shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+    }
+
+    /**
+     * 一个商铺待写入 redis 的状态
+     */
+    private static class Pending {
+        /**
+         * 最终所在的类型，已删除时为 null
+         */
+        private Long typeId;
+        private double x;
+        private double y;
+        /**
+         * 需要从中删除的类型
+         */
+        private final Set<Long> removeFrom = new HashSet<>();
+    }
+}
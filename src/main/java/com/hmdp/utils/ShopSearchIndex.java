@@ -0,0 +1,547 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商铺名称、地址的进程内倒排索引，替代 LIKE '%name%'。
+ * <ul>
+ *     <li>分词：去掉空白和标点、转小写后，取单字和相邻两字（bigram），适合没有空格分隔的中文；
+ *     关键字为一个字时查单字，否则查它的全部 bigram 并求交集</li>
+ *     <li>倒排表：按 id 升序的差值 varint 编码；增量更新先写入未压缩的增量（新增、删除的 id），
+ *     增量超过倒排表长度的 1/16 时才合并、重新编码，单次修改的代价与增量大小相关，而不是整个倒排表</li>
+ *     <li>排序：匹配程度（名称相同 > 名称前缀 > 名称包含 > 地址包含 > 仅 bigram 都出现）、评分、销量，最后按 id</li>
+ * </ul>
+ * 启动预热时整体构建（CacheWarmer），之后随 ShopChangeEvent 增量更新，其它节点的变更由 ShopChangeBroadcaster 通知；
+ * 构建期间的变更在构建完成时重放。
+ * 未构建完成时由调用方回退到数据库查询
+ */
+@Component
+public class ShopSearchIndex {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 单字或 bigram -> 倒排表
+     */
+    private Map<Integer, PostingList> postings = new HashMap<>();
+
+    /**
+     * 商铺 id -> 文档
+     */
+    private Map<Long, Doc> docs = new HashMap<>();
+
+    private volatile boolean ready;
+
+    /**
+     * 构建中的索引，null 表示没有在构建
+     */
+    private Builder builder;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 开始（重新）构建，调用 add 按 id 升序写入全部商铺后调用 publish
+     */
+    public void beginBuild() {
+        lock.writeLock().lock();
+        try {
+            builder = new Builder();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 构建期间写入一批商铺，id 必须比之前写入的都大
+     */
+    public void add(List<Shop> shops) {
+        Builder b = builder;
+        if (b == null) {
+            return;
+        }
+        for (Shop shop : shops) {
+            b.add(toDoc(shop));
+        }
+    }
+
+    /**
+     * 构建完成：压缩倒排表，重放构建期间的变更，替换原来的索引
+     */
+    public void publish() {
+        Builder b = builder;
+        if (b == null) {
+            return;
+        }
+        Map<Integer, PostingList> built = new HashMap<>(b.ids.size() * 2);
+        b.ids.forEach((gram, ids) -> built.put(gram, new PostingList(Posting.of(ids.toArray()))));
+        lock.writeLock().lock();
+        try {
+            postings = built;
+            docs = b.docs;
+            for (Object change : b.changes) {
+                if (change instanceof Doc) {
+                    putDoc((Doc) change);
+                } else {
+                    removeDoc((Long) change);
+                }
+            }
+            builder = null;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 事务提交后应用商铺变更，没有事务时立即应用；也用于应用其它节点广播的变更
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopChange(ShopChangeEvent event) {
+        if (event.getAfter() != null) {
+            put(event.getAfter());
+        } else if (event.getBefore() != null) {
+            remove(event.getBefore().getId());
+        }
+    }
+
+    public void put(Shop shop) {
+        Doc doc = toDoc(shop);
+        lock.writeLock().lock();
+        try {
+            if (builder != null) {
+                builder.changes.add(doc);
+            }
+            putDoc(doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long shopId) {
+        lock.writeLock().lock();
+        try {
+            if (builder != null) {
+                builder.changes.add(shopId);
+            }
+            removeDoc(shopId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按关键字查询一页商铺 id，不需要统计总数
+     * @param from 跳过的条数
+     * @param size 每页条数
+     * @return 按匹配程度、评分、销量排列的商铺 id
+     */
+    public List<Long> search(String keyword, int from, int size) {
+        String query = normalize(keyword);
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Doc> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            // 1.关键字的所有词项都要出现，从最短的倒排表开始求交集
+            Set<Integer> grams = grams(query, query.length() == 1);
+            List<PostingList> lists = new ArrayList<>(grams.size());
+            for (Integer gram : grams) {
+                PostingList posting = postings.get(gram);
+                if (posting == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(posting);
+            }
+            lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+            long[] ids = lists.get(0).decode();
+            int count = ids.length;
+            for (int i = 1; i < lists.size() && count > 0; i++) {
+                count = intersect(ids, count, lists.get(i).decode());
+            }
+            // 2.计算匹配程度
+            for (int i = 0; i < count; i++) {
+                Doc doc = docs.get(ids[i]);
+                if (doc != null) {
+                    matches.add(doc.match(quality(doc, query)));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 3.排序后取一页
+        matches.sort((a, b) -> {
+            if (a.quality != b.quality) {
+                return Integer.compare(b.quality, a.quality);
+            }
+            if (a.score != b.score) {
+                return Integer.compare(b.score, a.score);
+            }
+            if (a.sold != b.sold) {
+                return Integer.compare(b.sold, a.sold);
+            }
+            return Long.compare(a.id, b.id);
+        });
+        List<Long> page = new ArrayList<>(size);
+        for (int i = from; i < matches.size() && page.size() < size; i++) {
+            page.add(matches.get(i).id);
+        }
+        return page;
+    }
+
+    private void putDoc(Doc doc) {
+        removeDoc(doc.id);
+        docs.put(doc.id, doc);
+        // removeDoc 之后该 id 不在任何倒排表中
+        for (Integer gram : doc.grams()) {
+            postings.computeIfAbsent(gram, g -> new PostingList(Posting.of(new long[0]))).add(doc.id);
+        }
+    }
+
+    private void removeDoc(Long shopId) {
+        Doc old = docs.remove(shopId);
+        if (old == null) {
+            return;
+        }
+        for (Integer gram : old.grams()) {
+            PostingList posting = postings.get(gram);
+            if (posting == null) {
+                continue;
+            }
+            posting.remove(shopId);
+            if (posting.size() == 0) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * 就地求交集，a 的前 count 个元素与 b 的交集写回 a 的开头
+     * @return 交集的大小
+     */
+    static int intersect(long[] a, int count, long[] b) {
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < count && j < b.length; i++) {
+            while (j < b.length && b[j] < a[i]) {
+                j++;
+            }
+            if (j < b.length && b[j] == a[i]) {
+                a[n++] = a[i];
+            }
+        }
+        return n;
+    }
+
+    private static int quality(Doc doc, String query) {
+        if (doc.name.equals(query)) {
+            return 5;
+        }
+        if (doc.name.startsWith(query)) {
+            return 4;
+        }
+        if (doc.name.contains(query)) {
+            return 3;
+        }
+        if (doc.address.contains(query)) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static Doc toDoc(Shop shop) {
+        Doc doc = new Doc();
+        doc.id = shop.getId();
+        doc.name = normalize(shop.getName());
+        doc.address = normalize(shop.getAddress());
+        doc.score = shop.getScore() == null ? 0 : shop.getScore();
+        doc.sold = shop.getSold() == null ? 0 : shop.getSold();
+        return doc;
+    }
+
+    /**
+     * 只保留字母、数字和汉字等文字字符，转小写
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 词项：单字为字符本身（小于 65536），bigram 为 (c1 << 16) | c2
+     * @param unigrams 是否取单字，否则取 bigram（长度为 1 的文本取单字）
+     */
+    private static Set<Integer> grams(String text, boolean unigrams) {
+        Set<Integer> grams = new LinkedHashSet<>();
+        if (unigrams || text.length() == 1) {
+            for (int i = 0; i < text.length(); i++) {
+                grams.add((int) text.charAt(i));
+            }
+        } else {
+            for (int i = 0; i + 1 < text.length(); i++) {
+                grams.add((text.charAt(i) << 16) | text.charAt(i + 1));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * 一个商铺的可检索字段（已规范化）
+     */
+    private static class Doc {
+        private long id;
+        private String name;
+        private String address;
+        private int score;
+        private int sold;
+        /**
+         * 查询时计算的匹配程度
+         */
+        private int quality;
+
+        /**
+         * 名称和地址的单字与 bigram
+         */
+        Set<Integer> grams() {
+            Set<Integer> grams = new LinkedHashSet<>();
+            for (String text : new String[]{name, address}) {
+                grams.addAll(ShopSearchIndex.grams(text, true));
+                grams.addAll(ShopSearchIndex.grams(text, false));
+            }
+            return grams;
+        }
+
+        /**
+         * 索引中的文档是共享的，查询结果使用只含排序字段的副本
+         */
+        Doc match(int quality) {
+            Doc doc = new Doc();
+            doc.id = id;
+            doc.score = score;
+            doc.sold = sold;
+            doc.quality = quality;
+            return doc;
+        }
+    }
+
+    /**
+     * 压缩的倒排表：id 升序，依次写入与前一个 id 的差值（varint），不可变
+     */
+    static final class Posting {
+        private final byte[] data;
+        private final int size;
+
+        private Posting(byte[] data, int size) {
+            this.data = data;
+            this.size = size;
+        }
+
+        static Posting of(long[] ids) {
+            byte[] buffer = new byte[ids.length * 10];
+            int pos = 0;
+            long prev = 0;
+            for (long id : ids) {
+                long delta = id - prev;
+                prev = id;
+                while ((delta & ~0x7FL) != 0) {
+                    buffer[pos++] = (byte) ((delta & 0x7F) | 0x80);
+                    delta >>>= 7;
+                }
+                buffer[pos++] = (byte) delta;
+            }
+            return new Posting(Arrays.copyOf(buffer, pos), ids.length);
+        }
+
+        long[] decode() {
+            long[] ids = new long[size];
+            int pos = 0;
+            long prev = 0;
+            for (int i = 0; i < size; i++) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                prev += delta;
+                ids[i] = prev;
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * 可增量更新的倒排表：压缩的 base 加上未压缩的增量，增量只记录与 base 的差别：
+     * added 中的 id 不在 base 中，removed 中的 id 都在 base 中，两者都按 id 升序。
+     * 增量超过阈值时合并进 base；读写由 ShopSearchIndex 的读写锁保护
+     */
+    static final class PostingList {
+        /**
+         * 增量合并阈值的下限，较短的倒排表按该值合并
+         */
+        private static final int MIN_DELTA = 32;
+
+        private Posting base;
+        private final LongList added = new LongList();
+        private final LongList removed = new LongList();
+
+        PostingList(Posting base) {
+            this.base = base;
+        }
+
+        int size() {
+            return base.size + added.size - removed.size;
+        }
+
+        /**
+         * 加入一个当前不在表中的 id
+         */
+        void add(long id) {
+            if (!removed.removeSorted(id)) {
+                added.insertSorted(id);
+            }
+            compactIfNeeded();
+        }
+
+        /**
+         * 删除一个当前在表中的 id
+         */
+        void remove(long id) {
+            if (!added.removeSorted(id)) {
+                removed.insertSorted(id);
+            }
+            compactIfNeeded();
+        }
+
+        /**
+         * 合并 base 与增量，按 id 升序
+         */
+        long[] decode() {
+            long[] ids = base.decode();
+            if (added.size == 0 && removed.size == 0) {
+                return ids;
+            }
+            long[] result = new long[size()];
+            int n = 0;
+            int a = 0;
+            int r = 0;
+            for (long id : ids) {
+                while (a < added.size && added.values[a] < id) {
+                    result[n++] = added.values[a++];
+                }
+                if (r < removed.size && removed.values[r] == id) {
+                    r++;
+                } else {
+                    result[n++] = id;
+                }
+            }
+            while (a < added.size) {
+                result[n++] = added.values[a++];
+            }
+            return result;
+        }
+
+        private void compactIfNeeded() {
+            if (added.size + removed.size > Math.max(MIN_DELTA, base.size >>> 4)) {
+                base = Posting.of(decode());
+                added.clear();
+                removed.clear();
+            }
+        }
+    }
+
+    /**
+     * 整体构建时使用的未压缩倒排表，按 id 升序追加
+     */
+    private static final class Builder {
+        private final Map<Integer, LongList> ids = new HashMap<>();
+        private final Map<Long, Doc> docs = new HashMap<>();
+        /**
+         * 构建期间的变更：Doc 表示新增或修改，Long 表示删除
+         */
+        private final List<Object> changes = new ArrayList<>();
+
+        synchronized void add(Doc doc) {
+            docs.put(doc.id, doc);
+            for (Integer gram : doc.grams()) {
+                ids.computeIfAbsent(gram, g -> new LongList()).add(doc.id);
+            }
+        }
+    }
+
+    private static final class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        /**
+         * 按升序插入，已存在时不插入
+         */
+        void insertSorted(long value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return;
+            }
+            int insert = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(values, insert, values, insert + 1, size - insert);
+            values[insert] = value;
+            size++;
+        }
+
+        /**
+         * @return 是否存在并已删除
+         */
+        boolean removeSorted(long value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        void clear() {
+            values = new long[4];
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+-- 裁剪订单 Stream：只删除消费者组已经确认的消息，未确认（pending）和未投递的消息一律保留
+-- KEYS[1]：订单 Stream key
+-- ARGV[1]：消费者组；ARGV[2]：超过该长度才裁剪
+-- 1.长度未超过上限，不裁剪
+if (redis.call('xlen', KEYS[1]) <= tonumber(ARGV[2])) then
+    return 0
+end
+-- 2.裁剪边界：有 pending 消息时为最早的 pending id，否则为组内最后投递的 id
+local bound = nil
+local pending = redis.call('xpending', KEYS[1], ARGV[1])
+if (tonumber(pending[1]) > 0) then
+    bound = pending[2]
+else
+    local groups = redis.call('xinfo', 'groups', KEYS[1])
+    for _, group in ipairs(groups) do
+        local info = {}
+        for i = 1, #group, 2 do
+            info[group[i]] = group[i + 1]
+        end
+        if (info['name'] == ARGV[1]) then
+            bound = info['last-delivered-id']
+        end
+    end
+end
+if (bound == nil) then
+    return 0
+end
+-- 3.删除边界之前的消息 xtrim stream.orders:{shard} MINID ~ bound
+return redis.call('xtrim', KEYS[1], 'MINID', '~', bound)
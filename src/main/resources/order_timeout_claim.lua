@@ -0,0 +1,17 @@
+-- 认领到期的待取消订单：取出 score <= now 的订单，并把 score 推后到租约截止时间，
+-- 处理完成后由调用方 ZREM；处理节点宕机时，租约到期后订单会被重新认领
+-- 1.参数列表
+-- 1.1.当前时间（毫秒）
+local now = ARGV[1]
+-- 1.2.本次最多认领的订单数
+local count = ARGV[2]
+-- 1.3.租约截止时间（毫秒）
+local leaseUntil = ARGV[3]
+
+-- 2.取出到期订单 ZRANGEBYSCORE key -inf now LIMIT 0 count
+local members = redis.call('zrangebyscore', KEYS[1], '-inf', now, 'LIMIT', 0, count)
+-- 3.推后 score，其它节点不会再认领
+for i = 1, #members do
+    redis.call('zadd', KEYS[1], leaseUntil, members[i])
+end
+return members
@@ -1,32 +1,87 @@
+-- 秒杀：在用户的归属分段上校验限购、扣库存、记录购买数量
+-- 分段由调用方选定，脚本只访问这一个分段的 key（同一 hash tag），在 Cluster 下只涉及一个 slot
+-- 秒杀时间按 Redis 服务端的 TIME 判断，不受各应用节点时钟偏差的影响；
+-- 调用 TIME 后还要写入，旧版本 Redis 需要先切换为按命令复制（Redis 5 起为默认行为）
+redis.replicate_commands()
+
 -- 1.参数列表
--- 1.1.优惠券id
-local voucherId = ARGV[1]
--- 1.2.用户id
-local userId = ARGV[2]
+-- 1.1.用户id
+local userId = ARGV[1]
+-- 1.2.优惠券id
+local voucherId = ARGV[2]
 -- 1.3.订单id
 local orderId = ARGV[3]
+-- 1.4.每人限购数量
+local limit = tonumber(ARGV[4])
+-- 1.5.开始/结束时间（毫秒），0 表示不限制
+local beginTime = tonumber(ARGV[5])
+local endTime = tonumber(ARGV[6])
+-- 1.6.归属分段没有库存时是否先占用购买资格，由调用方继续扣其它分段的库存
+local reserve = ARGV[7] == '1'
+-- 1.7.是否写订单 Stream（0 表示使用进程内队列）、是否有旧的一人一单 set
+local hasStream = ARGV[8] == '1'
+local hasLegacy = ARGV[9] == '1'
 
 -- 2.数据key
 -- 2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
+local stockKey = KEYS[1]
+-- 2.2.购买记录key，hash：userId -> 已购数量
+local orderKey = KEYS[2]
+-- 2.3.订单 Stream、旧的一人一单 set，按顺序在其后
+local n = 3
+local streamKey
+if (hasStream) then
+    streamKey = KEYS[n]
+    n = n + 1
+end
+local legacyKey
+if (hasLegacy) then
+    legacyKey = KEYS[n]
+end
 
 -- 3.脚本业务
--- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2.库存不足，返回1
-    return 1
+-- 3.1.判断秒杀时间，不限制时间时不调用 TIME
+if (beginTime > 0 or endTime > 0) then
+    -- TIME 返回 {秒, 微秒}
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (beginTime > 0 and now < beginTime) then
+        -- 尚未开始，返回3
+        return 3
+    end
+    if (endTime > 0 and now > endTime) then
+        -- 已经结束，返回4
+        return 4
+    end
 end
--- 3.2.判断用户是否下单 SISMEMBER orderKey userId
-if(redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.3.存在，说明是重复下单，返回2
+-- 3.2.判断用户是否超过限购 HGET orderKey userId
+local bought = tonumber(redis.call('hget', orderKey, userId) or '0')
+-- 兼容旧数据：一人一单的 set 中的用户视为已购 1 件，并迁移到 hash
+if (legacyKey and bought == 0 and redis.call('type', legacyKey).ok == 'set' and redis.call('sismember', legacyKey, userId) == 1) then
+    bought = 1
+    redis.call('hset', orderKey, userId, 1)
+    redis.call('srem', legacyKey, userId)
+end
+if (bought >= limit) then
+    -- 超过限购，返回2
     return 2
 end
+-- 3.3.判断库存是否充足 get stockKey
+if (tonumber(redis.call('get', stockKey) or '0') <= 0) then
+    if (reserve) then
+        -- 占用购买资格，由调用方到其它分段扣库存，返回5
+        redis.call('hincrby', orderKey, userId, 1)
+        return 5
+    end
+    -- 库存不足，返回1
+    return 1
+end
 -- 3.4.扣库存 incrby stockKey -1
 redis.call('incrby', stockKey, -1)
--- 3.5.下单（保存用户）sadd orderKey userId
-redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+-- 3.5.下单（记录用户购买数量）hincrby orderKey userId 1
+redis.call('hincrby', orderKey, userId, 1)
+-- 4.发送消息到队列中
+if (hasStream) then
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+end
+return 0
@@ -0,0 +1,16 @@
+-- 归还超时取消订单占用的库存和购买资格，同一订单只归还一次
+-- 库存、购买记录和已归还订单都在用户的归属分段，三个 key 在同一个 slot
+-- KEYS[1]：库存key；KEYS[2]：购买记录key；KEYS[3]：已归还的订单id set
+-- ARGV[1]：userId；ARGV[2]：orderId；ARGV[3]：已归还记录的过期时间（秒）
+-- 1.记录已归还，已经归还过返回0
+if (redis.call('sadd', KEYS[3], ARGV[2]) == 0) then
+    return 0
+end
+redis.call('expire', KEYS[3], ARGV[3])
+-- 2.归还库存 incrby stockKey 1
+redis.call('incrby', KEYS[1], 1)
+-- 3.减少用户的购买数量，减到 0 时移除该用户
+if (redis.call('hincrby', KEYS[2], ARGV[1], -1) <= 0) then
+    redis.call('hdel', KEYS[2], ARGV[1])
+end
+return 1
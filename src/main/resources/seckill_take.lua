@@ -0,0 +1,12 @@
+-- 归属分段售罄后，从其它分段扣一件库存，购买资格已由 seckill.lua 占用
+-- KEYS[1]：分段库存key；KEYS[2]：该分段的订单 Stream（ARGV[4] 为 1 时），两个 key 带相同的 hash tag
+-- ARGV：userId, voucherId, orderId, 是否写 Stream
+if (tonumber(redis.call('get', KEYS[1]) or '0') <= 0) then
+    -- 该分段也没有库存，返回1
+    return 1
+end
+redis.call('incrby', KEYS[1], -1)
+if (ARGV[4] == '1') then
+    redis.call('xadd', KEYS[2], '*', 'userId', ARGV[1], 'voucherId', ARGV[2], 'id', ARGV[3])
+end
+return 0
@@ -0,0 +1,6 @@
+-- 所有分段都没有库存时，退回 seckill.lua 占用的购买资格
+-- KEYS[1]：归属分段的购买记录key；ARGV[1]：userId
+if (redis.call('hincrby', KEYS[1], ARGV[1], -1) <= 0) then
+    redis.call('hdel', KEYS[1], ARGV[1])
+end
+return 0
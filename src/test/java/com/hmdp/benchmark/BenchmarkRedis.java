@@ -0,0 +1,39 @@
+package com.hmdp.benchmark;
+
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.util.Arrays;
+
+/**
+ * 基准测试使用的 Redis 连接。
+ * 默认连接与 application.yaml 相同的 Redis，但使用独立的库（默认 15），避免污染业务数据、被订单消费者读到。
+ * 可通过 -Dredis.host / -Dredis.port / -Dredis.database 覆盖；
+ * 指定 -Dredis.cluster=host1:port1,host2:port2 时改为连接 Redis Cluster（Cluster 只有 0 号库）
+ */
+public final class BenchmarkRedis {
+
+    private BenchmarkRedis() {
+    }
+
+    public static LettuceConnectionFactory connectionFactory() {
+        LettuceConnectionFactory factory;
+        if (isCluster()) {
+            String cluster = System.getProperty("redis.cluster");
+            factory = new LettuceConnectionFactory(new RedisClusterConfiguration(Arrays.asList(cluster.split(","))));
+        } else {
+            RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                    System.getProperty("redis.host", "192.168.5.137"),
+                    Integer.getInteger("redis.port", 6379));
+            config.setDatabase(Integer.getInteger("redis.database", 15));
+            factory = new LettuceConnectionFactory(config);
+        }
+        factory.afterPropertiesSet();
+        return factory;
+    }
+
+    public static boolean isCluster() {
+        return !System.getProperty("redis.cluster", "").trim().isEmpty();
+    }
+}
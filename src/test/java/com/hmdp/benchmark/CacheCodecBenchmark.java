@@ -0,0 +1,89 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存编码对比：JSON（原来的 JSONUtil 格式）与 二进制。
+ * 分别测量 Shop 的编码、解码，以及带逻辑过期时间的 RedisData 解码（queryWithLogicalExpire 的热点路径），
+ * 编码后的字节数在 Setup 时输出；分配量可加 -prof gc 查看
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    @Param({"json", "binary"})
+    public String codec;
+
+    private CacheCodec cacheCodec;
+    private Shop shop;
+    private byte[] encoded;
+    private byte[] encodedWithExpire;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cacheCodec = "json".equals(codec) ? new JsonCacheCodec() : new BinaryCacheCodec();
+        shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        encoded = cacheCodec.encode(shop);
+        encodedWithExpire = cacheCodec.encodeWithExpire(shop, System.currentTimeMillis() + 60_000);
+        System.out.printf("%n%s: shop=%d bytes, logical-expire shop=%d bytes%n",
+                codec, encoded.length, encodedWithExpire.length);
+    }
+
+    @Benchmark
+    public byte[] encodeShop() {
+        return cacheCodec.encode(shop);
+    }
+
+    @Benchmark
+    public Shop decodeShop() {
+        return cacheCodec.decode(encoded, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeLogicalExpire() {
+        return cacheCodec.encodeWithExpire(shop, System.currentTimeMillis() + 60_000);
+    }
+
+    @Benchmark
+    public RedisData decodeLogicalExpire() {
+        return cacheCodec.decodeWithExpire(encodedWithExpire, Shop.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CacheCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.hmdp.config.RedisConfig;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 500 个线程同时查询同一个未缓存的 key（缓存击穿），统计 CacheClient.queryWithMutex 的
+ * 数据库查询次数和请求延迟的 p50 / p99 / max。
+ * JMH 无法让一轮内的所有线程同时未命中，这里用 CountDownLatch 自行压测，直接运行 main 即可
+ */
+public class CacheMissBenchmark {
+
+    private static final int CONCURRENCY = 500;
+    private static final int ROUNDS = 20;
+    private static final String KEY_PREFIX = "bench:cache:shop:";
+    private static final long DB_LATENCY_MILLIS = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        LettuceConnectionFactory factory = BenchmarkRedis.connectionFactory();
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(factory);
+        RedisTemplate<String, byte[]> cacheRedisTemplate = new RedisConfig().cacheRedisTemplate(factory);
+        cacheRedisTemplate.afterPropertiesSet();
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        AtomicInteger dbLoads = new AtomicInteger();
+        long[] latencies = new long[CONCURRENCY * ROUNDS];
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                // 每轮使用新的 CacheClient（空的本地缓存）和新的 key，保证所有请求都未命中
+                CacheClient cacheClient = new CacheClient(stringRedisTemplate, cacheRedisTemplate, new BinaryCacheCodec(),
+                        new RedisMessageListenerContainer(), new HotKeyDetector(500, 10, 100), 10000, 30, 1000, 0.1, 1.0);
+                long id = System.nanoTime();
+                CountDownLatch start = new CountDownLatch(1);
+                CountDownLatch done = new CountDownLatch(CONCURRENCY);
+                int offset = round * CONCURRENCY;
+                for (int i = 0; i < CONCURRENCY; i++) {
+                    int slot = offset + i;
+                    executor.submit(() -> {
+                        try {
+                            start.await();
+                            long begin = System.nanoTime();
+                            cacheClient.queryWithMutex(KEY_PREFIX, id, Shop.class, shopId -> {
+                                dbLoads.incrementAndGet();
+                                ThreadUtil.sleep(DB_LATENCY_MILLIS);
+                                Shop shop = new Shop();
+                                shop.setId(shopId);
+                                shop.setName("bench");
+                                return shop;
+                            }, 1L, TimeUnit.MINUTES);
+                            latencies[slot] = System.nanoTime() - begin;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                }
+                start.countDown();
+                done.await();
+                stringRedisTemplate.delete(KEY_PREFIX + id);
+            }
+        } finally {
+            executor.shutdownNow();
+            factory.destroy();
+        }
+        Arrays.sort(latencies);
+        System.out.printf("rounds=%d, concurrency=%d, db loads=%d (%.2f per round)%n",
+                ROUNDS, CONCURRENCY, dbLoads.get(), dbLoads.get() / (double) ROUNDS);
+        System.out.printf("latency p50=%.2fms, p99=%.2fms, max=%.2fms%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,54 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.HotKeyDetector;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 热点探测在每次本地缓存查询上的开销：8 个线程并发 record，
+ * 10% 的请求落在 10 个热点 key 上，其余均匀分布在 10 万个 key 上
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class HotKeyDetectorBenchmark {
+
+    private static final int KEYS = 100_000;
+    private static final int HOT_KEYS = 10;
+
+    private HotKeyDetector detector;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        detector = new HotKeyDetector(500, 10, 100);
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "cache:shop:" + i;
+        }
+    }
+
+    @Benchmark
+    public boolean record() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(10) == 0 ? random.nextInt(HOT_KEYS) : random.nextInt(KEYS);
+        return detector.record(keys[index]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(HotKeyDetectorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,175 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.utils.OrderQueue;
+import com.hmdp.utils.RingBufferOrderQueue;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillVoucherMeta;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀下单延迟：订单写入 Redis Stream 与 进程内环形缓冲区 的对比。
+ * 两种队列都执行同一个 seckill.lua，KEYS / ARGV 与 VoucherOrderServiceImpl 相同：
+ * stream 模式传入订单 Stream（hasStream = 1），由脚本 XADD；ring 模式不传（hasStream = 0），脚本返回 0 后再 offer。
+ * 16 个线程不限速压测，SampleTime 模式输出的 p0.50 / p0.99 / p0.999 即下单延迟的 p50 / p99 / p999；
+ * Throughput 模式额外输出 drained（ring 消费线程取走的订单数）和 rejected（未下单或环形缓冲区已满）。
+ * stream 由 XTRIM 控制长度，ring 由消费线程批量取出后丢弃
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(16)
+@Fork(1)
+public class OrderQueueBenchmark {
+
+    private static final long VOUCHER_ID = 900003L;
+    private static final long STOCK = 1_000_000_000L;
+
+    /**
+     * ring 消费线程取走的订单数，每轮迭代结束时由 Counters 读取并清零
+     */
+    private static final LongAdder DRAINED = new LongAdder();
+
+    @Param({"stream", "ring"})
+    public String queue;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+    private DefaultRedisScript<Long> script;
+    private RingBufferOrderQueue ringBufferOrderQueue;
+    /**
+     * 不分段，用户在 0 ~ 65535 之间循环，限购不会触发
+     */
+    private final SeckillVoucherMeta meta = new SeckillVoucherMeta(0, 0, Integer.MAX_VALUE, 1);
+    private List<String> keys;
+
+    private final AtomicLong orderId = new AtomicLong();
+
+    /**
+     * 每个线程的计数，JMH 在每轮迭代结束后汇总
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long rejected;
+        private boolean reportDrained;
+
+        @Setup(Level.Iteration)
+        public void reset(ThreadParams params) {
+            rejected = 0;
+            // drained 是全局的，只由一个线程上报
+            reportDrained = params.getThreadIndex() == 0;
+        }
+
+        public long drained() {
+            return reportDrained ? DRAINED.sumThenReset() : 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        factory = BenchmarkRedis.connectionFactory();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("seckill.lua"));
+        script.setResultType(Long.class);
+        cleanup();
+        stringRedisTemplate.opsForValue().set(SeckillKeys.stock(VOUCHER_ID, meta, 0), String.valueOf(STOCK));
+        keys = new ArrayList<>(3);
+        keys.add(SeckillKeys.stock(VOUCHER_ID, meta, 0));
+        keys.add(SeckillKeys.buyers(VOUCHER_ID, meta, 0));
+        if ("stream".equals(queue)) {
+            keys.add(SeckillKeys.orderStream(VOUCHER_ID, meta, 0));
+        } else {
+            ringBufferOrderQueue = new RingBufferOrderQueue(65536, 100, 50);
+            ringBufferOrderQueue.start(new OrderQueue.Handler() {
+                @Override
+                public void handle(List<VoucherOrder> orders) {
+                    DRAINED.add(orders.size());
+                }
+
+                @Override
+                public void discard(List<VoucherOrder> orders) {
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void trim() {
+        if (ringBufferOrderQueue == null) {
+            stringRedisTemplate.opsForStream().trim(SeckillKeys.orderStream(VOUCHER_ID, meta, 0), 100000, true);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (ringBufferOrderQueue != null) {
+            ringBufferOrderQueue.stop();
+        }
+        cleanup();
+        factory.destroy();
+    }
+
+    private void cleanup() {
+        for (String pattern : new String[]{"seckill:*" + VOUCHER_ID + "*", SeckillKeys.orderStream(VOUCHER_ID, meta, 0)}) {
+            Set<String> matched = stringRedisTemplate.keys(pattern);
+            if (matched != null && !matched.isEmpty()) {
+                stringRedisTemplate.delete(matched);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean seckill(Counters counters) {
+        long id = orderId.incrementAndGet();
+        long userId = id & 0xFFFF;
+        boolean stream = ringBufferOrderQueue == null;
+        Long result = stringRedisTemplate.execute(script, keys,
+                String.valueOf(userId), String.valueOf(VOUCHER_ID), String.valueOf(id),
+                String.valueOf(meta.getUserLimit()), "0", "0",
+                "0", stream ? "1" : "0", "0");
+        if (result == null || result != 0) {
+            counters.rejected++;
+            return false;
+        }
+        if (stream) {
+            return true;
+        }
+        // 与 VoucherOrderServiceImpl 相同：脚本成功后写入进程内队列
+        VoucherOrder order = new VoucherOrder();
+        order.setId(id);
+        order.setUserId(userId);
+        order.setVoucherId(VOUCHER_ID);
+        boolean offered = ringBufferOrderQueue.offer(order);
+        if (!offered) {
+            counters.rejected++;
+        }
+        return offered;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(OrderQueueBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
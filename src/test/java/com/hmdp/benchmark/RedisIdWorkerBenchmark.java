@@ -0,0 +1,79 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生成订单id的对比：
+ * baseline 为优化前的 RedisIdWorker（每次调用新建 DateTimeFormatter 格式化日期，再 INCR）；
+ * nextId 为当前的 RedisIdWorker，每次 INCR（step = 1）与 号段租用（step = 1000）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(16)
+@Fork(1)
+public class RedisIdWorkerBenchmark {
+
+    /**
+     * 开始时间戳(2022\1\1 0:0:0)
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+
+    @Param({"1", "1000"})
+    public int step;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+    private RedisIdWorker redisIdWorker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        factory = BenchmarkRedis.connectionFactory();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, step);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        redisIdWorker.destroy();
+        factory.destroy();
+    }
+
+    /**
+     * 优化前的实现，与 step 无关
+     */
+    @Benchmark
+    public long baseline() {
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        long count = stringRedisTemplate.opsForValue().increment("icr:bench-baseline:" + date);
+        return timestamp << 32 | count;
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("bench");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RedisIdWorkerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
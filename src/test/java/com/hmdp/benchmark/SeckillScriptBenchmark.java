@@ -0,0 +1,165 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillVoucherMeta;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀脚本的吞吐量对比：
+ * baseline 为优化前的 seckill.lua（在脚本内拼接 seckill:stock:{voucherId}、seckill:order:{voucherId}，XADD 到唯一的 stream.orders）；
+ * singleKey / segmented 为当前的 seckill.lua，分别使用 1 个和 segments 个库存分段，
+ * 每次调用使用随机用户抢同一张热点券，按 userId 选归属分段，与 VoucherOrderServiceImpl 传入相同的 KEYS / ARGV，
+ * 订单写入归属分段的 Stream。库存足够大，保证全程走归属分段扣减的分支。
+ *
+ * 在单机 Redis 上所有分段仍由同一个线程执行，segmented 与 singleKey 的差别只反映脚本本身的开销；
+ * 分段把热点券分散到多个 slot 的收益需要在 Cluster 上测：-Dredis.cluster=host1:port1,...，
+ * 此时 baseline 访问未声明的 key，无法在 Cluster 上执行，会被排除。
+ *
+ * 运行：在 IDE 中执行 main 方法，或 mvn test-compile 后用 exec 插件调用
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(32)
+@Fork(1)
+public class SeckillScriptBenchmark {
+
+    private static final long BASELINE_VOUCHER_ID = 900000L;
+    private static final long SINGLE_VOUCHER_ID = 900001L;
+    private static final long SEGMENT_VOUCHER_ID = 900002L;
+    private static final long STOCK = 100_000_000L;
+
+    /**
+     * 优化前的 seckill.lua
+     */
+    private static final String BASELINE_SCRIPT =
+            "local voucherId = ARGV[1]\n" +
+            "local userId = ARGV[2]\n" +
+            "local orderId = ARGV[3]\n" +
+            "local stockKey = 'seckill:stock:' .. voucherId\n" +
+            "local orderKey = 'seckill:order:' .. voucherId\n" +
+            "if(tonumber(redis.call('get', stockKey)) <= 0) then\n" +
+            "    return 1\n" +
+            "end\n" +
+            "if(redis.call('sismember', orderKey, userId) == 1) then\n" +
+            "    return 2\n" +
+            "end\n" +
+            "redis.call('incrby', stockKey, -1)\n" +
+            "redis.call('sadd', orderKey, userId)\n" +
+            "redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)\n" +
+            "return 0";
+
+    @Param({"8"})
+    public int segments;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+    private DefaultRedisScript<Long> baselineScript;
+    private DefaultRedisScript<Long> script;
+    private SeckillVoucherMeta singleMeta;
+    private SeckillVoucherMeta segmentMeta;
+    private final AtomicLong orderId = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        factory = BenchmarkRedis.connectionFactory();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        baselineScript = new DefaultRedisScript<>(BASELINE_SCRIPT, Long.class);
+        script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("seckill.lua"));
+        script.setResultType(Long.class);
+        cleanup();
+        singleMeta = new SeckillVoucherMeta(0, 0, 1, 1);
+        segmentMeta = new SeckillVoucherMeta(0, 0, 1, segments);
+        // 优化前的库存 key
+        if (!BenchmarkRedis.isCluster()) {
+            stringRedisTemplate.opsForValue().set(SeckillKeys.stock(BASELINE_VOUCHER_ID, null, 0), String.valueOf(STOCK));
+        }
+        // 单分段库存
+        stringRedisTemplate.opsForValue().set(SeckillKeys.stock(SINGLE_VOUCHER_ID, singleMeta, 0), String.valueOf(STOCK));
+        // 多分段库存
+        for (int i = 0; i < segments; i++) {
+            stringRedisTemplate.opsForValue().set(SeckillKeys.stock(SEGMENT_VOUCHER_ID, segmentMeta, i), String.valueOf(STOCK / segments));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void trim() {
+        Set<String> streams = stringRedisTemplate.keys("stream.orders*");
+        if (streams != null) {
+            for (String stream : streams) {
+                stringRedisTemplate.opsForStream().trim(stream, 100000, true);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cleanup();
+        factory.destroy();
+    }
+
+    private void cleanup() {
+        for (String pattern : new String[]{"seckill:*" + BASELINE_VOUCHER_ID + "*", "seckill:*" + SINGLE_VOUCHER_ID + "*",
+                "seckill:*" + SEGMENT_VOUCHER_ID + "*", "stream.orders*"}) {
+            Set<String> keys = stringRedisTemplate.keys(pattern);
+            if (keys != null && !keys.isEmpty()) {
+                stringRedisTemplate.delete(keys);
+            }
+        }
+    }
+
+    @Benchmark
+    public Long baseline() {
+        long userId = ThreadLocalRandom.current().nextLong(1, 1L << 40);
+        return stringRedisTemplate.execute(baselineScript, Collections.emptyList(),
+                String.valueOf(BASELINE_VOUCHER_ID), String.valueOf(userId), String.valueOf(orderId.incrementAndGet()));
+    }
+
+    @Benchmark
+    public Long singleKey() {
+        return seckill(SINGLE_VOUCHER_ID, singleMeta);
+    }
+
+    @Benchmark
+    public Long segmented() {
+        return seckill(SEGMENT_VOUCHER_ID, segmentMeta);
+    }
+
+    private Long seckill(long voucherId, SeckillVoucherMeta meta) {
+        long userId = ThreadLocalRandom.current().nextLong(1, 1L << 40);
+        int home = SeckillKeys.home(userId, meta);
+        return stringRedisTemplate.execute(script,
+                Arrays.asList(SeckillKeys.stock(voucherId, meta, home), SeckillKeys.buyers(voucherId, meta, home),
+                        SeckillKeys.orderStream(voucherId, meta, home)),
+                String.valueOf(userId), String.valueOf(voucherId), String.valueOf(orderId.incrementAndGet()),
+                String.valueOf(meta.getUserLimit()), "0", "0",
+                meta.getSegments() > 1 ? "1" : "0", "1", "0");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(SeckillScriptBenchmark.class.getSimpleName());
+        if (BenchmarkRedis.isCluster()) {
+            options.exclude(SeckillScriptBenchmark.class.getSimpleName() + ".baseline");
+        }
+        new Runner(options.build()).run();
+    }
+}
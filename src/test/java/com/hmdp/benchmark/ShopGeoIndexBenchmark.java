@@ -0,0 +1,127 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.ShopGeoIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 附近商铺查询：本地坐标索引与 redis GEOSEARCH 的延迟分布（SampleTime 模式输出 p50 / p99 / p99.9）。
+ * 商铺随机分布在以杭州为中心约 100 km x 100 km 的范围内，查询半径 5 km、取最近 10 个，
+ * 与 queryShopByType 第一页相同。redis 使用 BenchmarkRedis 的库，100 万商铺时 Setup 需要几秒
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShopGeoIndexBenchmark {
+
+    private static final double CENTER_X = 120.15;
+    private static final double CENTER_Y = 30.28;
+    private static final double SPAN = 1.0;
+    private static final double RADIUS = 5000;
+    private static final int LIMIT = 10;
+    private static final Long TYPE_ID = 1L;
+    private static final String KEY = "bench:shop:geo";
+
+    @Param({"10000", "100000", "1000000"})
+    public int shops;
+
+    private ShopGeoIndex index;
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        index = new ShopGeoIndex(0.01);
+        index.beginBuild(TYPE_ID);
+        factory = BenchmarkRedis.connectionFactory();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        stringRedisTemplate.delete(KEY);
+        // 固定种子，本地索引和 redis 中的数据相同
+        Random random = new Random(42);
+        List<Shop> page = new ArrayList<>(1000);
+        for (long id = 1; id <= shops; id++) {
+            page.add(new Shop()
+                    .setId(id)
+                    .setX(CENTER_X + (random.nextDouble() - 0.5) * SPAN)
+                    .setY(CENTER_Y + (random.nextDouble() - 0.5) * SPAN));
+            if (page.size() == 1000 || id == shops) {
+                index.add(TYPE_ID, page);
+                geoAdd(page);
+                page = new ArrayList<>(1000);
+            }
+        }
+        index.publish(TYPE_ID);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stringRedisTemplate.delete(KEY);
+        factory.destroy();
+    }
+
+    @Benchmark
+    public List<ShopGeoIndex.Nearby> local() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return index.search(TYPE_ID, randomX(random), randomY(random), RADIUS, LIMIT);
+    }
+
+    @Benchmark
+    public GeoResults<RedisGeoCommands.GeoLocation<String>> redis() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return stringRedisTemplate.opsForGeo().search(
+                KEY,
+                GeoReference.fromCoordinate(randomX(random), randomY(random)),
+                new Distance(RADIUS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(LIMIT));
+    }
+
+    private static double randomX(ThreadLocalRandom random) {
+        return CENTER_X + (random.nextDouble() - 0.5) * SPAN * 0.8;
+    }
+
+    private static double randomY(ThreadLocalRandom random) {
+        return CENTER_Y + (random.nextDouble() - 0.5) * SPAN * 0.8;
+    }
+
+    private void geoAdd(List<Shop> page) {
+        Map<String, Point> members = new HashMap<>(page.size() * 2);
+        for (Shop shop : page) {
+            members.put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            ((StringRedisConnection) connection).geoAdd(KEY, members);
+            return null;
+        });
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ShopGeoIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.ShopSearchIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商铺名称搜索：倒排索引查询一页（10 条）的延迟分布。
+ * 名称、地址由常用字随机组成，关键字为随机商铺名称中的 2 ~ 4 个连续字
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShopSearchIndexBenchmark {
+
+    private static final String CHARS = "茶餐厅火锅烧烤面馆咖啡甜品川菜湘菜粤菜酒吧小吃快餐日料西餐海鲜自助包子饺子米线奶茶蛋糕面包水果超市美发足疗按摩影院网吧健身"
+            + "金华路锦昌文华苑大关拱墅西湖上城下城滨江萧山余杭文一文二文三教工莫干山延安中山体育场庆春凤起";
+
+    @Param({"10000", "100000", "1000000"})
+    public int shops;
+
+    private ShopSearchIndex index;
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        index = new ShopSearchIndex();
+        index.beginBuild();
+        names = new String[shops];
+        List<Shop> page = new ArrayList<>(1000);
+        for (int i = 0; i < shops; i++) {
+            names[i] = randomText(random, 4 + random.nextInt(5));
+            page.add(new Shop()
+                    .setId(i + 1L)
+                    .setName(names[i])
+                    .setAddress(randomText(random, 8 + random.nextInt(8)))
+                    .setScore(random.nextInt(50))
+                    .setSold(random.nextInt(10000)));
+            if (page.size() == 1000) {
+                index.add(page);
+                page = new ArrayList<>(1000);
+            }
+        }
+        index.add(page);
+        index.publish();
+    }
+
+    @Benchmark
+    public List<Long> search() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String name = names[random.nextInt(names.length)];
+        int length = Math.min(name.length(), 2 + random.nextInt(3));
+        int start = random.nextInt(name.length() - length + 1);
+        return index.search(name.substring(start, start + length), 0, 10);
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ShopSearchIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,148 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 二进制编码的往返测试，以及切换编码前写入的 JSON 缓存的兼容读取
+ */
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+    @Test
+    void shopRoundTrip() {
+        Shop shop = shop();
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+    }
+
+    @Test
+    void shopWithNullFields() {
+        Shop shop = new Shop().setId(1L).setName("茶餐厅").setScore(-3);
+        Shop decoded = codec.decode(codec.encode(shop), Shop.class);
+        assertEquals(shop, decoded);
+        assertNull(decoded.getX());
+        assertNull(decoded.getCreateTime());
+    }
+
+    @Test
+    void blogRoundTrip() {
+        Blog blog = new Blog()
+                .setId(7L)
+                .setShopId(1L)
+                .setUserId(1010L)
+                .setIcon("/imgs/icons/user.jpg")
+                .setName("可可")
+                .setIsLike(false)
+                .setTitle("探店")
+                .setContent("")
+                .setLiked(0)
+                .setCreateTime(LocalDateTime.of(2022, 1, 2, 3, 4, 5));
+        assertEquals(blog, codec.decode(codec.encode(blog), Blog.class));
+    }
+
+    @Test
+    void userRoundTrip() {
+        UserDTO user = new UserDTO();
+        user.setId(Long.MAX_VALUE);
+        user.setNickName("user_abc");
+        assertEquals(user, codec.decode(codec.encode(user), UserDTO.class));
+    }
+
+    @Test
+    void arrayFallsBackToJson() {
+        ShopType[] types = {
+                new ShopType().setId(1L).setName("美食").setSort(1),
+                new ShopType().setId(2L).setName("KTV").setSort(2)
+        };
+        assertArrayEquals(types, codec.decode(codec.encode(types), ShopType[].class));
+    }
+
+    @Test
+    void withExpire() {
+        Shop shop = shop();
+        RedisData redisData = codec.decodeWithExpire(codec.encodeWithExpire(shop, 123456789L), Shop.class);
+        assertEquals(123456789L, redisData.getExpireTime());
+        assertEquals(0L, redisData.getDelta());
+        assertEquals(shop, redisData.getData());
+    }
+
+    @Test
+    void withRefresh() {
+        Shop shop = shop();
+        RedisData redisData = codec.decodeWithRefresh(codec.encodeWithRefresh(shop, 987654321L, 35L), Shop.class);
+        assertEquals(987654321L, redisData.getExpireTime());
+        assertEquals(35L, redisData.getDelta());
+        assertEquals(shop, redisData.getData());
+    }
+
+    @Test
+    void nullValue() {
+        assertNull(codec.decode(codec.encode(null), Shop.class));
+        RedisData redisData = codec.decodeWithExpire(codec.encodeWithExpire(null, 123456789L), Shop.class);
+        assertEquals(123456789L, redisData.getExpireTime());
+        assertNull(redisData.getData());
+    }
+
+    @Test
+    void plainValueHasNoExpire() {
+        RedisData redisData = codec.decodeWithExpire(codec.encode(shop()), Shop.class);
+        assertEquals(0L, redisData.getExpireTime());
+    }
+
+    @Test
+    void legacyJson() {
+        Shop shop = new Shop().setId(1L).setName("茶餐厅").setX(120.149192).setY(30.316078);
+        byte[] json = JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8);
+        assertEquals(shop, codec.decode(json, Shop.class));
+        assertEquals(shop, codec.decodeWithRefresh(json, Shop.class).getData());
+    }
+
+    @Test
+    void legacyJsonWithExpire() {
+        Shop shop = new Shop().setId(1L).setName("茶餐厅");
+        RedisData legacy = new RedisData();
+        legacy.setData(shop);
+        legacy.setExpireTime(1640000000000L);
+        byte[] json = JSONUtil.toJsonStr(legacy).getBytes(StandardCharsets.UTF_8);
+        RedisData redisData = codec.decodeWithExpire(json, Shop.class);
+        assertEquals(1640000000000L, redisData.getExpireTime());
+        assertEquals(shop, redisData.getData());
+    }
+
+    @Test
+    void legacyJsonArray() {
+        ShopType[] types = {new ShopType().setId(1L).setName("美食").setSort(1)};
+        byte[] json = JSONUtil.toJsonStr(types).getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(types, codec.decode(json, ShopType[].class));
+    }
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://example.com/a.jpg,https://example.com/b.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19, 123000000))
+                .setDistance(1234.5);
+    }
+}
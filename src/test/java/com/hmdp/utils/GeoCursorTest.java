@@ -0,0 +1,87 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.exception.BaseException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 滚动分页游标：编码往返，以及按游标翻页时结果不重复、不遗漏
+ */
+class GeoCursorTest {
+
+    private static final Long TYPE_ID = 1L;
+    private static final double X = 120.15;
+    private static final double Y = 30.28;
+    private static final double RADIUS = 5000;
+
+    @Test
+    void roundTrip() {
+        GeoCursor cursor = new GeoCursor(1234.5678, 42L);
+        String token = cursor.encode();
+        assertTrue(token.matches("[A-Za-z0-9_-]+"));
+        GeoCursor decoded = GeoCursor.decode(token);
+        assertEquals(1234.5678, decoded.getDistance(), 0);
+        assertEquals(42L, decoded.getId());
+    }
+
+    @Test
+    void invalidToken() {
+        assertThrows(BaseException.class, () -> GeoCursor.decode("not a cursor"));
+        assertThrows(BaseException.class, () -> GeoCursor.decode("AAAA"));
+    }
+
+    @Test
+    void pagesHaveNoDuplicatesOrGaps() {
+        // 部分商铺坐标相同，页边界会落在距离相同的商铺中间
+        ShopGeoIndex index = new ShopGeoIndex(0.01);
+        List<Shop> shops = new ArrayList<>();
+        Random random = new Random(7);
+        for (long id = 1; id <= 1000; id++) {
+            double x = X + (random.nextDouble() - 0.5) * 0.1;
+            double y = Y + (random.nextDouble() - 0.5) * 0.1;
+            if (id % 10 == 0) {
+                x = X + 0.01;
+                y = Y;
+            }
+            shops.add(new Shop().setId(id).setX(x).setY(y));
+        }
+        index.beginBuild(TYPE_ID);
+        index.add(TYPE_ID, shops);
+        index.publish(TYPE_ID);
+
+        List<ShopGeoIndex.Nearby> all = index.search(TYPE_ID, X, Y, RADIUS, shops.size());
+        for (int size : new int[]{1, 7, 10, 100}) {
+            List<Long> paged = new ArrayList<>();
+            Set<Long> seen = new HashSet<>();
+            String token = null;
+            while (true) {
+                List<ShopGeoIndex.Nearby> page;
+                if (token == null) {
+                    page = index.search(TYPE_ID, X, Y, RADIUS, size);
+                } else {
+                    // 游标经过编码、解码，与客户端回传的一致
+                    GeoCursor cursor = GeoCursor.decode(token);
+                    page = index.searchAfter(TYPE_ID, X, Y, RADIUS, cursor.getDistance(), cursor.getId(), size);
+                }
+                for (ShopGeoIndex.Nearby nearby : page) {
+                    assertTrue(seen.add(nearby.getId()), "重复的商铺 " + nearby.getId());
+                    paged.add(nearby.getId());
+                }
+                if (page.size() < size) {
+                    break;
+                }
+                ShopGeoIndex.Nearby last = page.get(page.size() - 1);
+                token = new GeoCursor(last.getDistance(), last.getId()).encode();
+            }
+            assertEquals(ShopGeoIndexTest.ids(all), paged);
+        }
+    }
+}
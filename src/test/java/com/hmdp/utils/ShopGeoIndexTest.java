@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 本地坐标索引：与暴力计算的结果比较排序和截断，距离相同时按 id 排列
+ */
+class ShopGeoIndexTest {
+
+    private static final Long TYPE_ID = 1L;
+    private static final double X = 120.15;
+    private static final double Y = 30.28;
+
+    private ShopGeoIndex index;
+    private List<Shop> shops;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopGeoIndex(0.01);
+        shops = new ArrayList<>();
+        Random random = new Random(42);
+        for (long id = 1; id <= 2000; id++) {
+            shops.add(new Shop()
+                    .setId(id)
+                    .setX(X + (random.nextDouble() - 0.5) * 0.2)
+                    .setY(Y + (random.nextDouble() - 0.5) * 0.2));
+        }
+        build(shops);
+    }
+
+    @Test
+    void notReadyBeforePublish() {
+        ShopGeoIndex empty = new ShopGeoIndex(0.01);
+        empty.beginBuild(TYPE_ID);
+        assertFalse(empty.isReady(TYPE_ID));
+        assertTrue(empty.search(TYPE_ID, X, Y, 5000, 10).isEmpty());
+        empty.publish(TYPE_ID);
+        assertTrue(empty.isReady(TYPE_ID));
+    }
+
+    @Test
+    void nearestMatchesBruteForce() {
+        for (int limit : new int[]{1, 10, 100, 5000}) {
+            assertEquals(bruteForce(X, Y, 5000, limit), ids(index.search(TYPE_ID, X, Y, 5000, limit)));
+        }
+    }
+
+    @Test
+    void sortedByDistanceWithinRadius() {
+        List<ShopGeoIndex.Nearby> list = index.search(TYPE_ID, X, Y, 3000, 50);
+        assertEquals(50, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            assertTrue(list.get(i).getDistance() <= 3000);
+            if (i > 0) {
+                assertTrue(list.get(i - 1).getDistance() <= list.get(i).getDistance());
+            }
+        }
+    }
+
+    @Test
+    void tiesOrderedById() {
+        // 同一坐标上的商铺距离相同，按 id 排列，截断时保留 id 小的
+        ShopGeoIndex ties = new ShopGeoIndex(0.01);
+        List<Shop> list = new ArrayList<>();
+        for (long id : new long[]{9, 3, 7, 1, 5}) {
+            list.add(new Shop().setId(id).setX(X + 0.001).setY(Y));
+        }
+        list.add(new Shop().setId(2L).setX(X + 0.002).setY(Y));
+        ties.beginBuild(TYPE_ID);
+        ties.add(TYPE_ID, list);
+        ties.publish(TYPE_ID);
+
+        assertEquals(Arrays.asList(1L, 3L, 5L, 7L, 9L, 2L), ids(ties.search(TYPE_ID, X, Y, 5000, 10)));
+        assertEquals(Arrays.asList(1L, 3L, 5L), ids(ties.search(TYPE_ID, X, Y, 5000, 3)));
+        // 游标落在相同距离的中间
+        double d = ShopGeoIndex.distance(X, Y, X + 0.001, Y);
+        assertEquals(Arrays.asList(5L, 7L, 9L, 2L), ids(ties.searchAfter(TYPE_ID, X, Y, 5000, d, 3L, 10)));
+    }
+
+    @Test
+    void putMovesAndRemoves() {
+        index.put(TYPE_ID, 1L, X, Y);
+        ShopGeoIndex.Nearby first = index.search(TYPE_ID, X, Y, 5000, 1).get(0);
+        assertEquals(1L, first.getId());
+        assertEquals(0, first.getDistance(), 1e-6);
+
+        index.remove(1L);
+        assertFalse(ids(index.search(TYPE_ID, X, Y, 50000, 5000)).contains(1L));
+
+        // 类型变化时从原类型中删除
+        index.put(TYPE_ID, 2L, X, Y);
+        index.put(2L, 2L, X, Y);
+        assertFalse(ids(index.search(TYPE_ID, X, Y, 50000, 5000)).contains(2L));
+    }
+
+    @Test
+    void distanceUsesRedisEarthRadius() {
+        // 经线上 1 度 = 6372797.560856 * π / 180
+        assertEquals(111226.30, ShopGeoIndex.distance(X, 0, X, 1), 0.01);
+        assertEquals(0, ShopGeoIndex.distance(X, Y, X, Y), 0);
+    }
+
+    private void build(List<Shop> list) {
+        index.beginBuild(TYPE_ID);
+        index.add(TYPE_ID, list);
+        index.publish(TYPE_ID);
+    }
+
+    private List<Long> bruteForce(double x, double y, double radius, int limit) {
+        return shops.stream()
+                .map(s -> new ShopGeoIndex.Nearby(s.getId(), ShopGeoIndex.distance(x, y, s.getX(), s.getY()), s.getX(), s.getY()))
+                .filter(n -> n.getDistance() <= radius)
+                .sorted(Comparator.comparingDouble(ShopGeoIndex.Nearby::getDistance)
+                        .thenComparingLong(ShopGeoIndex.Nearby::getId))
+                .limit(limit)
+                .map(ShopGeoIndex.Nearby::getId)
+                .collect(Collectors.toList());
+    }
+
+    static List<Long> ids(List<ShopGeoIndex.Nearby> list) {
+        return list.stream().map(ShopGeoIndex.Nearby::getId).collect(Collectors.toList());
+    }
+}
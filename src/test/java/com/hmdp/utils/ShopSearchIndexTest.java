@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 商铺倒排索引：倒排表编码、增量、交集，以及查询的匹配、排序和增量更新
+ */
+class ShopSearchIndexTest {
+
+    private ShopSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopSearchIndex();
+        index.beginBuild();
+        index.add(Arrays.asList(
+                shop(1L, "星巴克咖啡", "西湖区文三路", 45),
+                shop(2L, "咖啡馆", "滨江区", 40),
+                shop(3L, "瑞幸咖啡", "咖啡馆路1号", 47),
+                // 两个 bigram 都出现，但不相邻
+                shop(4L, "啡馆与咖啡", "拱墅区", 30),
+                shop(5L, "茶餐厅", "上城区", 38),
+                shop(6L, "Coffee House", "余杭区", 10)));
+        index.publish();
+    }
+
+    @Test
+    void postingRoundTrip() {
+        long[] ids = {1, 2, 127, 128, 300, 16384, 1L << 40, Long.MAX_VALUE};
+        assertArrayEquals(ids, ShopSearchIndex.Posting.of(ids).decode());
+        assertEquals(0, ShopSearchIndex.Posting.of(new long[0]).decode().length);
+    }
+
+    @Test
+    void postingListAddAndRemove() {
+        ShopSearchIndex.PostingList list = new ShopSearchIndex.PostingList(ShopSearchIndex.Posting.of(new long[]{10, 20, 30}));
+        list.add(5);
+        list.add(25);
+        list.add(40);
+        assertArrayEquals(new long[]{5, 10, 20, 25, 30, 40}, list.decode());
+        list.remove(10);
+        list.remove(25);
+        list.remove(30);
+        assertArrayEquals(new long[]{5, 20, 40}, list.decode());
+        // 删除后重新加入 base 中的 id
+        list.add(10);
+        assertArrayEquals(new long[]{5, 10, 20, 40}, list.decode());
+        assertEquals(4, list.size());
+    }
+
+    @Test
+    void postingListMatchesSortedSet() {
+        // 随机增删，跨过多次增量合并
+        ShopSearchIndex.PostingList list = new ShopSearchIndex.PostingList(ShopSearchIndex.Posting.of(new long[0]));
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            long id = random.nextInt(2000) + 1;
+            if (expected.remove(id)) {
+                list.remove(id);
+            } else {
+                expected.add(id);
+                list.add(id);
+            }
+            assertEquals(expected.size(), list.size());
+        }
+        assertArrayEquals(expected.stream().mapToLong(Long::longValue).toArray(), list.decode());
+    }
+
+    @Test
+    void intersect() {
+        long[] a = {1, 3, 5, 7, 9, 11};
+        int count = ShopSearchIndex.intersect(a, a.length, new long[]{2, 3, 4, 9, 10, 11, 12});
+        assertEquals(3, count);
+        assertArrayEquals(new long[]{3, 9, 11}, Arrays.copyOf(a, count));
+        assertEquals(0, ShopSearchIndex.intersect(a, count, new long[]{4, 8}));
+    }
+
+    @Test
+    void bigramIntersection() {
+        // 名称相同 > 地址包含 > 仅 bigram 都出现
+        assertEquals(Arrays.asList(2L, 3L, 4L), index.search("咖啡馆", 0, 10));
+    }
+
+    @Test
+    void rankedByMatchThenScore() {
+        // 名称前缀 > 名称包含（3、1、4 按评分）
+        assertEquals(Arrays.asList(2L, 3L, 1L, 4L), index.search("咖啡", 0, 10));
+        assertEquals(Arrays.asList(3L, 1L), index.search("咖啡", 1, 2));
+        assertEquals(Collections.emptyList(), index.search("咖啡", 10, 10));
+    }
+
+    @Test
+    void singleCharacterAndNormalize() {
+        assertEquals(Collections.singletonList(5L), index.search("茶", 0, 10));
+        assertEquals(Collections.singletonList(6L), index.search(" COFFEE! ", 0, 10));
+        assertEquals(index.search("咖啡", 0, 10), index.search("咖 啡", 0, 10));
+    }
+
+    @Test
+    void noMatch() {
+        assertTrue(index.search("火锅", 0, 10).isEmpty());
+        assertTrue(index.search("", 0, 10).isEmpty());
+        assertTrue(index.search("!!", 0, 10).isEmpty());
+    }
+
+    @Test
+    void incrementalUpdate() {
+        index.remove(3L);
+        assertEquals(Arrays.asList(2L, 1L, 4L), index.search("咖啡", 0, 10));
+
+        index.put(shop(5L, "咖啡茶", "上城区", 50));
+        assertEquals(Arrays.asList(5L, 2L, 1L, 4L), index.search("咖啡", 0, 10));
+        assertTrue(index.search("茶餐厅", 0, 10).isEmpty());
+
+        index.onShopChange(new ShopChangeEvent(shop(5L, "咖啡茶", "上城区", 50), null));
+        assertEquals(Arrays.asList(2L, 1L, 4L), index.search("咖啡", 0, 10));
+    }
+
+    @Test
+    void changesDuringBuildAreReplayed() {
+        ShopSearchIndex rebuilt = new ShopSearchIndex();
+        rebuilt.beginBuild();
+        assertFalse(rebuilt.isReady());
+        rebuilt.add(Arrays.asList(shop(1L, "星巴克咖啡", "", 45), shop(2L, "咖啡馆", "", 40)));
+        rebuilt.put(shop(9L, "咖啡工坊", "", 60));
+        rebuilt.remove(1L);
+        rebuilt.publish();
+        assertTrue(rebuilt.isReady());
+        assertEquals(Arrays.asList(9L, 2L), rebuilt.search("咖啡", 0, 10));
+    }
+
+    private static Shop shop(Long id, String name, String address, int score) {
+        return new Shop().setId(id).setName(name).setAddress(address).setScore(score).setSold(0);
+    }
+}